@@ -1,16 +1,19 @@
 package rest.addressbook;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
- * A really simple Address Book. This class is not thread safe.
+ * A really simple Address Book. This class is not thread safe. The persons
+ * are kept in a {@link PersonStore}, in memory unless another store is given.
  *
  */
-public class AddressBook {
+public class AddressBook implements Closeable {
 
 	private int nextId = 1;
-	private List<Person> personList = new ArrayList<Person>();
+	private PersonStore personList = new IndexedPersonList();
 
 	/**
 	 * The value of next unique identifier.
@@ -32,8 +35,75 @@ public class AddressBook {
 		return personList;
 	}
 
+	/**
+	 * Replaces the persons of this address book. A list that is not a
+	 * person store is copied to a store in memory.
+	 * @param persons a person list
+	 */
 	public void setPersonList(List<Person> persons) {
-		this.personList = persons;
+		this.personList = persons instanceof PersonStore ? (PersonStore) persons
+				: new IndexedPersonList(persons);
+	}
+
+	/**
+	 * The position of a person in the person list.
+	 * @param id the unique identifier of a person
+	 * @return the index of the person, or -1 if there is no such person.
+	 */
+	public int indexOfPerson(int id) {
+		return personList.indexOfPerson(id);
+	}
+
+	/**
+	 * Looks up a person.
+	 * @param id the unique identifier of a person
+	 * @return the person, or null if there is no such person.
+	 */
+	public Person findPerson(int id) {
+		return personList.findPerson(id);
+	}
+
+	/**
+	 * Looks up some persons, such as a page of a listing or search results.
+	 * Unlike {@link #findPerson(int)}, the lookups do not count as uses of
+	 * the persons, so they do not bring cold persons into memory.
+	 * @param ids the unique identifiers of the persons
+	 * @return the persons that exist, in the order of the identifiers.
+	 */
+	public List<Person> findPersons(List<Integer> ids) {
+		List<Person> persons = new ArrayList<Person>(ids.size());
+		for (Integer id : ids) {
+			Person p = personList.peekPerson(id);
+			if (p != null) {
+				persons.add(p);
+			}
+		}
+		return persons;
+	}
+
+	/**
+	 * A copy of the persons, in order, that later changes do not affect.
+	 * @return a new list.
+	 */
+	public List<Person> snapshot() {
+		return personList.snapshot();
+	}
+
+	/**
+	 * The metrics of the cache of hot persons.
+	 * @return the cache statistics, or null if every person is kept in memory.
+	 */
+	public CacheStats cacheStats() {
+		return personList.stats();
+	}
+
+	/**
+	 * Releases the storage of the persons.
+	 * @throws IOException if the storage cannot be released
+	 */
+	@Override
+	public void close() throws IOException {
+		personList.close();
 	}
 
 	/**
@@ -1,15 +1,23 @@
 package rest.addressbook;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
@@ -29,13 +37,73 @@ public class AddressBookService {
 	AddressBook addressBook;
 
 	/**
-	 * A GET /contacts request should return the address book in JSON.
-	 * @return a JSON representation of the address book.
+	 * The (shared) search index of the address book.
+	 */
+	@Inject
+	PersonIndex personIndex;
+
+	/**
+	 * The (shared) listing index of the address book.
+	 */
+	@Inject
+	ListingIndex listingIndex;
+
+	/**
+	 * The (shared) background job that reports duplicated persons.
+	 */
+	@Inject
+	DuplicateScanner duplicateScanner;
+
+	/**
+	 * A GET /contacts request should return the address book in JSON. The persons
+	 * can be sorted, filtered and paginated; filtered or paginated persons are in
+	 * id order unless another order is given.
+	 * @param sort the order of the persons: name or id
+	 * @param phoneTypes the phone types that every person must have
+	 * @param hasEmail whether the persons must have an email or not
+	 * @param offset the number of persons skipped
+	 * @param limit the maximum number of persons
+	 * @return a JSON representation of the address book or 400 if a parameter is not valid.
 	 */
 	@GET
 	@Produces(MediaType.APPLICATION_JSON)
-	public AddressBook getAddressBook() {
-		return addressBook;
+	public Response getAddressBook(@QueryParam("sort") String sort,
+			@QueryParam("phoneType") List<String> phoneTypes,
+			@QueryParam("hasEmail") String hasEmail,
+			@QueryParam("offset") @DefaultValue("0") int offset,
+			@QueryParam("limit") @DefaultValue("-1") int limit) {
+		if (sort == null && phoneTypes.isEmpty() && hasEmail == null
+				&& offset == 0 && limit == -1) {
+			return Response.ok(addressBook).build();
+		}
+		ListingIndex.Sort order = ListingIndex.Sort.ID;
+		List<PhoneType> types = new ArrayList<PhoneType>();
+		Boolean email = null;
+		try {
+			if (sort != null) {
+				order = ListingIndex.Sort.valueOf(sort.toUpperCase());
+			}
+			for (String type : phoneTypes) {
+				types.add(PhoneType.valueOf(type.toUpperCase()));
+			}
+		} catch (IllegalArgumentException e) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		if (hasEmail != null) {
+			if (!hasEmail.equals("true") && !hasEmail.equals("false")) {
+				return Response.status(Status.BAD_REQUEST).build();
+			}
+			email = Boolean.valueOf(hasEmail);
+		}
+		if (offset < 0 || limit < -1) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		List<Integer> ids = listingIndex.list(order, types, email, offset,
+				limit == -1 ? Integer.MAX_VALUE : limit);
+		AddressBook page = new AddressBook();
+		page.setNextId(addressBook.getNextId());
+		page.setPersonList(addressBook.findPersons(ids));
+		return Response.ok(page).build();
 	}
 
 	/**
@@ -47,12 +115,96 @@ public class AddressBookService {
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
 	public Response addPerson(@Context UriInfo info, Person person) {
-		addressBook.getPersonList().add(person);
 		person.setId(addressBook.nextId());
-		person.setHref(info.getAbsolutePathBuilder().path("person/{id}").build(person.getId()));
+		person.setHrefTemplate(HrefTemplate.forBaseUri(info.getBaseUri()));
+		addressBook.getPersonList().add(person);
+		personIndex.add(person);
+		listingIndex.add(person);
+		duplicateScanner.changed();
 		return Response.created(person.getHref()).entity(person).build();
 	}
 
+	/**
+	 * A GET /contacts/query?q={text} request should return the entries whose name
+	 * or email best match the text, even if it is partial or misspelled
+	 * @param q the text to search
+	 * @param limit the maximum number of entries
+	 * @return a JSON representation of the matching entries, best first, or 400 if there is no text
+	 */
+	@GET
+	@Path("/query")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response queryPersons(@QueryParam("q") String q,
+			@QueryParam("limit") @DefaultValue("10") int limit) {
+		if (q == null || q.trim().isEmpty() || limit < 1) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		List<Person> persons = addressBook.findPersons(personIndex.search(q, limit));
+		return Response.ok(new GenericEntity<List<Person>>(persons) {}).build();
+	}
+
+	/**
+	 * A GET /contacts/duplicates request should return the groups of entries that
+	 * only differ in the formatting of their email or phone numbers, as found by
+	 * the latest background scan
+	 * @return a JSON representation of the duplicate groups, with the time of the
+	 * scan as Last-Modified, or 503 if no scan has completed yet
+	 */
+	@GET
+	@Path("/duplicates")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getDuplicates() {
+		List<DuplicateGroup> groups = duplicateScanner.getGroups();
+		if (groups == null) {
+			return Response.status(Status.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, 1).build();
+		}
+		return Response.ok(new GenericEntity<List<DuplicateGroup>>(groups) {})
+				.lastModified(duplicateScanner.getScannedAt()).build();
+	}
+
+	/**
+	 * A POST /contacts/person/{id}/merge?with={id} request should fold the given
+	 * entries into an entry and delete them
+	 * @param id the unique identifier of the person that remains
+	 * @param with the unique identifiers of the duplicated persons
+	 * @return a JSON representation of the merged entry, 404 if the id is not a key
+	 * or 400 if some duplicate is not a key
+	 */
+	@POST
+	@Path("/person/{id}/merge")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response mergePerson(@PathParam("id") int id,
+			@QueryParam("with") List<Integer> with) {
+		Person person = addressBook.findPerson(id);
+		if (person == null) {
+			return Response.status(Status.NOT_FOUND).build();
+		}
+		List<Person> duplicates = new ArrayList<Person>();
+		for (Integer duplicateId : new LinkedHashSet<Integer>(with)) {
+			Person duplicate = addressBook.findPerson(duplicateId);
+			if (duplicate == null || duplicateId == id) {
+				return Response.status(Status.BAD_REQUEST).build();
+			}
+			duplicates.add(duplicate);
+		}
+		if (duplicates.isEmpty()) {
+			return Response.status(Status.BAD_REQUEST).build();
+		}
+		for (Person duplicate : duplicates) {
+			DuplicateDetector.merge(person, duplicate);
+			addressBook.getPersonList().remove(addressBook.indexOfPerson(duplicate.getId()));
+			personIndex.remove(duplicate.getId());
+			listingIndex.remove(duplicate.getId());
+		}
+		// Store the merged person again, it may not live in memory
+		addressBook.getPersonList().set(addressBook.indexOfPerson(id), person);
+		personIndex.add(person);
+		listingIndex.add(person);
+		duplicateScanner.changed();
+		return Response.ok(person).build();
+	}
+
 	/**
 	 * A GET /contacts/person/{id} request should return a entry from the address book
 	 * @param id the unique identifier of a person
@@ -62,10 +214,9 @@ public class AddressBookService {
 	@Path("/person/{id}")
 	@Produces(MediaType.APPLICATION_JSON)
 	public Response getPerson(@PathParam("id") int id) {
-		for (Person p : addressBook.getPersonList()) {
-			if (p.getId() == id) {
-				return Response.ok(p).build();
-			}
+		Person p = addressBook.findPerson(id);
+		if (p != null) {
+			return Response.ok(p).build();
 		}
 		return Response.status(Status.NOT_FOUND).build();
 	}
@@ -82,13 +233,15 @@ public class AddressBookService {
 	@Produces(MediaType.APPLICATION_JSON)
 	public Response updatePerson(@Context UriInfo info,
 			@PathParam("id") int id, Person person) {
-		for (int i = 0; i < addressBook.getPersonList().size(); i++) {
-			if (addressBook.getPersonList().get(i).getId() == id) {
-				person.setId(id);
-				person.setHref(info.getAbsolutePath());
-				addressBook.getPersonList().set(i, person);
-				return Response.ok(person).build();
-			}
+		int i = addressBook.indexOfPerson(id);
+		if (i >= 0) {
+			person.setId(id);
+			person.setHrefTemplate(HrefTemplate.forBaseUri(info.getBaseUri()));
+			addressBook.getPersonList().set(i, person);
+			personIndex.add(person);
+			listingIndex.add(person);
+			duplicateScanner.changed();
+			return Response.ok(person).build();
 		}
 		return Response.status(Status.BAD_REQUEST).build();
 	}
@@ -102,11 +255,13 @@ public class AddressBookService {
 	@Path("/person/{id}")
 	@Produces(MediaType.APPLICATION_JSON)
 	public Response updatePerson(@PathParam("id") int id) {
-		for (int i = 0; i < addressBook.getPersonList().size(); i++) {
-			if (addressBook.getPersonList().get(i).getId() == id) {
-				addressBook.getPersonList().remove(i);
-				return Response.noContent().build();
-			}
+		int i = addressBook.indexOfPerson(id);
+		if (i >= 0) {
+			addressBook.getPersonList().remove(i);
+			personIndex.remove(id);
+			listingIndex.remove(id);
+			duplicateScanner.changed();
+			return Response.noContent().build();
 		}
 		return Response.status(Status.NOT_FOUND).build();
 	}
@@ -1,11 +1,21 @@
 package rest.addressbook;
 
-import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.ServerProperties;
 
 public class ApplicationConfig extends ResourceConfig {
 
+	private final ServerStatus serverStatus;
+	private final DuplicateScanner duplicateScanner;
+
 	/**
      * Default constructor
      */
@@ -19,14 +29,91 @@ public class ApplicationConfig extends ResourceConfig {
      * @param addressBook a provided address book
      */
     public ApplicationConfig(final AddressBook addressBook) {
+    	this(addressBook, new ServerStatus());
+    }
+
+    /**
+     * Creates the configuration of a server whose status is already reported,
+     * see {@link #recovering(AddressBook, ServerStatus)}
+     * @param addressBook a provided address book
+     * @param serverStatus the status of the server
+     */
+    public ApplicationConfig(final AddressBook addressBook, ServerStatus serverStatus) {
+    	this.serverStatus = serverStatus;
+    	duplicateScanner = new DuplicateScanner(addressBook);
     	register(AddressBookService.class);
-    	register(MOXyJsonProvider.class);
+    	register(HealthService.class);
+    	// Our provider replaces the one registered by the MOXy feature
+    	property(ServerProperties.MOXY_JSON_FEATURE_DISABLE, true);
+    	register(ProjectingJsonProvider.class);
+    	register(new JaxbContextResolver());
+    	register(duplicateScanner);
     	register(new AbstractBinder() {
 
 			@Override
 			protected void configure() {
 				bind(addressBook).to(AddressBook.class);
+				bind(new PersonIndex(addressBook)).to(PersonIndex.class);
+				bind(new ListingIndex(addressBook)).to(ListingIndex.class);
+				bind(serverStatus).to(ServerStatus.class);
+				bind(duplicateScanner).to(DuplicateScanner.class);
 			}});
 	}	
 
+    /**
+     * The configuration served while the address book is being recovered
+     * and indexed. Only the health service answers; other requests get a
+     * 503 until the server is reloaded with the full configuration.
+     * @param addressBook the address book being recovered
+     * @param serverStatus the status of the server
+     * @return a configuration with the health service.
+     */
+    public static ResourceConfig recovering(final AddressBook addressBook,
+    		final ServerStatus serverStatus) {
+    	ResourceConfig config = new ResourceConfig();
+    	config.register(HealthService.class);
+    	config.property(ServerProperties.MOXY_JSON_FEATURE_DISABLE, true);
+    	config.register(ProjectingJsonProvider.class);
+    	config.register(new JaxbContextResolver());
+    	config.register(new Recovering());
+    	config.register(new AbstractBinder() {
+
+			@Override
+			protected void configure() {
+				bind(addressBook).to(AddressBook.class);
+				bind(serverStatus).to(ServerStatus.class);
+			}});
+    	return config;
+    }
+
+    /**
+     * The status reported by the health service
+     * @return the server status
+     */
+    public ServerStatus getServerStatus() {
+    	return serverStatus;
+    }
+
+    /**
+     * The background job that reports duplicated persons
+     * @return the duplicate scanner
+     */
+    public DuplicateScanner getDuplicateScanner() {
+    	return duplicateScanner;
+    }
+
+    /**
+     * Turns away the requests that need the address book
+     */
+    @PreMatching
+    private static class Recovering implements ContainerRequestFilter {
+
+    	@Override
+    	public void filter(ContainerRequestContext request) {
+    		if (!request.getUriInfo().getPath().startsWith("health")) {
+    			request.abortWith(Response.status(Status.SERVICE_UNAVAILABLE)
+    					.header(HttpHeaders.RETRY_AFTER, 1).build());
+    		}
+    	}
+    }
 }
@@ -0,0 +1,86 @@
+package rest.addressbook;
+
+/**
+ * The metrics of the cache of hot persons.
+ *
+ */
+public class CacheStats {
+
+	private int capacity;
+	private int size;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private double hitRate;
+	private long coldReads;
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	/**
+	 * The number of entries that left the cache, or were not admitted, to
+	 * make room for others.
+	 * @return a number of evictions.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public void setEvictions(long evictions) {
+		this.evictions = evictions;
+	}
+
+	/**
+	 * The fraction of lookups that were served from the cache.
+	 * @return a number between 0 and 1.
+	 */
+	public double getHitRate() {
+		return hitRate;
+	}
+
+	public void setHitRate(double hitRate) {
+		this.hitRate = hitRate;
+	}
+
+	/**
+	 * The number of persons looked up by identifier that were read from the
+	 * on-disk segment. Walking the whole list is not counted.
+	 * @return a number of reads.
+	 */
+	public long getColdReads() {
+		return coldReads;
+	}
+
+	public void setColdReads(long coldReads) {
+		this.coldReads = coldReads;
+	}
+}
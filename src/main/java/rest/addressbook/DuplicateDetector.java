@@ -0,0 +1,222 @@
+package rest.addressbook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds persons that only differ in the formatting of their email or phone
+ * numbers. Each person is blocked under the normalized email and under its
+ * name with each normalized phone number; persons that share a block are
+ * linked, and linked persons form a duplicate group. Blocking runs in
+ * parallel on the common fork/join pool.
+ *
+ */
+public class DuplicateDetector {
+
+	private static final int THRESHOLD = 10000;
+
+	private DuplicateDetector() {
+	}
+
+	/**
+	 * Finds the groups of duplicated persons.
+	 * @param persons the persons of an address book, which must not change
+	 * while they are scanned, see {@link AddressBook#snapshot()}
+	 * @return the duplicate groups, ordered by the lowest identifier in each group.
+	 */
+	public static List<DuplicateGroup> findDuplicates(List<Person> persons) {
+		Person[] snapshot = persons.toArray(new Person[persons.size()]);
+		ConcurrentHashMap<String, Integer> blocks = new ConcurrentHashMap<String, Integer>();
+		List<Link> links = ForkJoinPool.commonPool().invoke(
+				new BlockTask(snapshot, blocks, 0, snapshot.length));
+
+		int[] parent = new int[snapshot.length];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+		for (Link link : links) {
+			int a = find(parent, link.first);
+			int b = find(parent, link.second);
+			if (a != b) {
+				parent[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+
+		Map<Integer, DuplicateGroup> groups = new HashMap<Integer, DuplicateGroup>();
+		for (Link link : links) {
+			int root = find(parent, link.first);
+			if (!groups.containsKey(root)) {
+				DuplicateGroup group = new DuplicateGroup();
+				group.setKey(link.key);
+				groups.put(root, group);
+			}
+		}
+		for (int i = 0; i < snapshot.length; i++) {
+			DuplicateGroup group = groups.get(find(parent, i));
+			if (group != null) {
+				group.getPersonList().add(snapshot[i]);
+			}
+		}
+		List<Integer> roots = new ArrayList<Integer>(groups.keySet());
+		Collections.sort(roots);
+		List<DuplicateGroup> result = new ArrayList<DuplicateGroup>(roots.size());
+		for (Integer root : roots) {
+			result.add(groups.get(root));
+		}
+		return result;
+	}
+
+	/**
+	 * Folds a duplicate into a person: the phone numbers that the person does
+	 * not have yet are added, and the email is kept if the person has none.
+	 * @param person the person that remains
+	 * @param duplicate the person that is folded
+	 */
+	public static void merge(Person person, Person duplicate) {
+		List<String> numbers = new ArrayList<String>();
+		for (PhoneNumber phone : person.getPhoneList()) {
+			numbers.add(normalizePhone(phone.getNumber()));
+		}
+		for (PhoneNumber phone : duplicate.getPhoneList()) {
+			String number = normalizePhone(phone.getNumber());
+			if (!numbers.contains(number)) {
+				numbers.add(number);
+				person.addPhone(phone);
+			}
+		}
+		if (!person.hasEmail()) {
+			person.setEmail(duplicate.getEmail());
+		}
+	}
+
+	/**
+	 * Normalizes an email: surrounding blanks are removed and the case is ignored.
+	 * @param email an email
+	 * @return the normalized email, or null if there is no email.
+	 */
+	static String normalizeEmail(String email) {
+		if (email == null || email.trim().isEmpty()) {
+			return null;
+		}
+		return email.trim().toLowerCase();
+	}
+
+	/**
+	 * Normalizes a phone number: only digits are kept and an international
+	 * prefix is written as a leading '+'.
+	 * @param number a phone number
+	 * @return the normalized number, or null if it has no digits.
+	 */
+	static String normalizePhone(String number) {
+		if (number == null) {
+			return null;
+		}
+		String trimmed = number.trim();
+		StringBuilder digits = new StringBuilder(trimmed.length());
+		for (int i = 0; i < trimmed.length(); i++) {
+			char c = trimmed.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits.append(c);
+			}
+		}
+		if (digits.length() == 0) {
+			return null;
+		}
+		if (trimmed.startsWith("+")) {
+			return "+" + digits;
+		}
+		if (digits.length() > 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+			return "+" + digits.substring(2);
+		}
+		return digits.toString();
+	}
+
+	private static String normalizeName(String name) {
+		return name == null ? "" : name.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Two persons that share a blocking key.
+	 */
+	private static class Link {
+		private final int first;
+		private final int second;
+		private final String key;
+
+		Link(int first, int second, String key) {
+			this.first = first;
+			this.second = second;
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Blocks a slice of persons, linking each one with the first person
+	 * found under the same key.
+	 */
+	private static class BlockTask extends RecursiveTask<List<Link>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Person[] persons;
+		private final ConcurrentHashMap<String, Integer> blocks;
+		private final int from;
+		private final int to;
+
+		BlockTask(Person[] persons, ConcurrentHashMap<String, Integer> blocks, int from, int to) {
+			this.persons = persons;
+			this.blocks = blocks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Link> compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				BlockTask left = new BlockTask(persons, blocks, from, middle);
+				left.fork();
+				List<Link> links = new BlockTask(persons, blocks, middle, to).compute();
+				links.addAll(left.join());
+				return links;
+			}
+			List<Link> links = new ArrayList<Link>();
+			for (int i = from; i < to; i++) {
+				Person person = persons[i];
+				String email = normalizeEmail(person.getEmail());
+				if (email != null) {
+					block("email:" + email, email, i, links);
+				}
+				String name = normalizeName(person.getName());
+				for (PhoneNumber phone : person.getPhoneList()) {
+					String number = normalizePhone(phone.getNumber());
+					if (number != null) {
+						block("phone:" + name + "|" + number, number, i, links);
+					}
+				}
+			}
+			return links;
+		}
+
+		private void block(String block, String key, int i, List<Link> links) {
+			Integer first = blocks.putIfAbsent(block, i);
+			if (first != null && first != i) {
+				links.add(new Link(first, i, key));
+			}
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package rest.addressbook;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of persons in an address book that are likely the same contact.
+ *
+ */
+public class DuplicateGroup {
+
+	private String key;
+	private List<Person> personList = new ArrayList<Person>();
+
+	/**
+	 * The normalized email or phone number that the persons share.
+	 * @return a key.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * The list of duplicated persons, ordered by identifier.
+	 * @return a person list.
+	 */
+	public List<Person> getPersonList() {
+		return personList;
+	}
+
+	public void setPersonList(List<Person> persons) {
+		this.personList = persons;
+	}
+}
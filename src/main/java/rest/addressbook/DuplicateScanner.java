@@ -0,0 +1,130 @@
+package rest.addressbook;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
+
+/**
+ * A background job that looks for duplicated persons and keeps the latest
+ * report. The address book is scanned when the application starts and again
+ * after it changes, but not more often than once per interval, so writes
+ * never wait for a scan and a large address book is not scanned on every
+ * request. Scans run on a single daemon thread that stops with the
+ * application.
+ *
+ */
+public class DuplicateScanner implements ContainerLifecycleListener {
+	private static final Logger LOGGER = Grizzly.logger(DuplicateScanner.class);
+
+	/**
+	 * Default minimum time between the end of a scan and the next one
+	 */
+	public static final long DEFAULT_INTERVAL_MILLIS = 60000;
+
+	private final AddressBook addressBook;
+	private final ScheduledThreadPoolExecutor executor;
+	private volatile long interval = DEFAULT_INTERVAL_MILLIS;
+	private volatile List<DuplicateGroup> groups;
+	private volatile Date scannedAt;
+	private boolean pending;
+	private long lastScanEnd;
+
+	/**
+	 * Creates a scanner, which is started by the container.
+	 * @param addressBook the address book scanned
+	 */
+	public DuplicateScanner(AddressBook addressBook) {
+		this.addressBook = addressBook;
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "duplicate-scanner");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * The minimum time between the end of a scan and the next one.
+	 * @param millis a time in milliseconds
+	 */
+	public void setInterval(long millis) {
+		this.interval = millis;
+	}
+
+	/**
+	 * The duplicate groups found by the latest scan.
+	 * @return the groups, or null if no scan has completed yet.
+	 */
+	public List<DuplicateGroup> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * The time when the latest report was completed.
+	 * @return a date, or null if no scan has completed yet.
+	 */
+	public Date getScannedAt() {
+		return scannedAt;
+	}
+
+	/**
+	 * Requests a scan because the address book has changed. Several changes
+	 * before the scan starts are covered by the same scan.
+	 */
+	public synchronized void changed() {
+		if (pending || executor.isShutdown()) {
+			return;
+		}
+		pending = true;
+		long delay = Math.max(0, lastScanEnd + interval - System.currentTimeMillis());
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				scan();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void scan() {
+		synchronized (this) {
+			// Changes made while scanning request another scan
+			pending = false;
+		}
+		try {
+			// Writes go on while the copy is scanned
+			groups = DuplicateDetector.findDuplicates(addressBook.snapshot());
+			scannedAt = new Date();
+		} catch (RuntimeException e) {
+			// The store could not be read; the next change scans again
+			LOGGER.log(Level.WARNING, "Duplicate scan failed: " + e, e);
+		} finally {
+			synchronized (this) {
+				lastScanEnd = System.currentTimeMillis();
+			}
+		}
+	}
+
+	@Override
+	public void onStartup(Container container) {
+		changed();
+	}
+
+	@Override
+	public void onReload(Container container) {
+	}
+
+	@Override
+	public void onShutdown(Container container) {
+		executor.shutdownNow();
+	}
+}
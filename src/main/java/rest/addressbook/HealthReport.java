@@ -0,0 +1,84 @@
+package rest.addressbook;
+
+/**
+ * The health of a server as reported to load balancers.
+ *
+ */
+public class HealthReport {
+
+	private ServerStatus.State state;
+	private boolean ready;
+	private int inFlight;
+	private int maxWorkers;
+	private double saturation;
+	private int queueDepth;
+	private double p99Millis;
+
+	public ServerStatus.State getState() {
+		return state;
+	}
+
+	public void setState(ServerStatus.State state) {
+		this.state = state;
+	}
+
+	/**
+	 * If the server is ready and not saturated.
+	 * @return true if the server should receive traffic.
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	public void setReady(boolean ready) {
+		this.ready = ready;
+	}
+
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	public void setInFlight(int inFlight) {
+		this.inFlight = inFlight;
+	}
+
+	public int getMaxWorkers() {
+		return maxWorkers;
+	}
+
+	public void setMaxWorkers(int maxWorkers) {
+		this.maxWorkers = maxWorkers;
+	}
+
+	/**
+	 * The requests in progress relative to the worker pool size.
+	 * @return a fraction, above 1 if requests wait for workers.
+	 */
+	public double getSaturation() {
+		return saturation;
+	}
+
+	public void setSaturation(double saturation) {
+		this.saturation = saturation;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public void setQueueDepth(int queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	/**
+	 * The 99th percentile of the latency of the most recent requests.
+	 * @return a latency in milliseconds.
+	 */
+	public double getP99Millis() {
+		return p99Millis;
+	}
+
+	public void setP99Millis(double p99Millis) {
+		this.p99Millis = p99Millis;
+	}
+}
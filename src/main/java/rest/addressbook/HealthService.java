@@ -0,0 +1,71 @@
+package rest.addressbook;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+/**
+ * A service that reports the health of the server to load balancers.
+ *
+ */
+@Path("/health")
+public class HealthService {
+
+	/**
+	 * The (shared) status of the server.
+	 */
+	@Inject
+	ServerStatus serverStatus;
+
+	/**
+	 * The (shared) address book object.
+	 */
+	@Inject
+	AddressBook addressBook;
+
+	/**
+	 * A GET /health/live request should succeed while the server can answer.
+	 * @return a JSON representation of the health of the server.
+	 */
+	@GET
+	@Path("/live")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response live() {
+		return Response.ok(serverStatus.report()).build();
+	}
+
+	/**
+	 * A GET /health/ready request should succeed only if the server has
+	 * recovered its data, is warm and is not saturated.
+	 * @return a JSON representation of the health of the server, with 503 if
+	 * it should not receive traffic.
+	 */
+	@GET
+	@Path("/ready")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response ready() {
+		HealthReport report = serverStatus.report();
+		return Response.status(report.isReady() ? Status.OK : Status.SERVICE_UNAVAILABLE)
+				.entity(report).build();
+	}
+
+	/**
+	 * A GET /health/cache request should return the metrics of the cache of
+	 * hot persons, if the address book keeps cold persons on disk.
+	 * @return a JSON representation of the cache metrics or 404
+	 */
+	@GET
+	@Path("/cache")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response cache() {
+		CacheStats stats = addressBook.cacheStats();
+		if (stats == null) {
+			return Response.status(Status.NOT_FOUND).build();
+		}
+		return Response.ok(stats).build();
+	}
+}
@@ -0,0 +1,58 @@
+package rest.addressbook;
+
+import java.net.URI;
+
+import javax.ws.rs.core.UriBuilder;
+
+/**
+ * A precomputed prefix for the URIs of persons, shared by every person
+ * published under the same base URI. The URI of a person is only written
+ * when it is serialized, as the prefix followed by the identifier.
+ *
+ */
+public class HrefTemplate {
+
+	private static volatile HrefTemplate last;
+
+	private final URI baseUri;
+	private final String prefix;
+
+	private HrefTemplate(URI baseUri) {
+		this.baseUri = baseUri;
+		this.prefix = UriBuilder.fromUri(baseUri).path(AddressBookService.class)
+				.path("person/").build().toString();
+	}
+
+	/**
+	 * The template for a base URI. The template is reused while the base URI
+	 * does not change.
+	 * @param baseUri the base URI of the application
+	 * @return a template.
+	 */
+	public static HrefTemplate forBaseUri(URI baseUri) {
+		HrefTemplate template = last;
+		if (template == null || !template.baseUri.equals(baseUri)) {
+			template = new HrefTemplate(baseUri);
+			last = template;
+		}
+		return template;
+	}
+
+	/**
+	 * The URI of a person.
+	 * @param id the unique identifier of a person
+	 * @return an absolute URI.
+	 */
+	public URI toUri(int id) {
+		return URI.create(toString(id));
+	}
+
+	/**
+	 * The URI of a person as text, without parsing it.
+	 * @param id the unique identifier of a person
+	 * @return an absolute URI.
+	 */
+	public String toString(int id) {
+		return prefix + id;
+	}
+}
@@ -0,0 +1,109 @@
+package rest.addressbook;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A person list kept in memory. A map from identifiers to persons is kept
+ * along with the list, so a person is found without walking the list.
+ *
+ * This class is thread safe.
+ *
+ */
+public class IndexedPersonList extends AbstractList<Person> implements PersonStore {
+
+	private final List<Person> persons = new ArrayList<Person>();
+	private final Map<Integer, Person> byId = new HashMap<Integer, Person>();
+
+	public IndexedPersonList() {
+	}
+
+	/**
+	 * Creates a list with some persons.
+	 * @param persons the persons, in order
+	 */
+	public IndexedPersonList(Collection<Person> persons) {
+		addAll(persons);
+	}
+
+	@Override
+	public synchronized Person get(int index) {
+		return persons.get(index);
+	}
+
+	@Override
+	public synchronized int size() {
+		return persons.size();
+	}
+
+	@Override
+	public synchronized Person set(int index, Person person) {
+		Person old = persons.set(index, person);
+		forget(old);
+		byId.put(person.getId(), person);
+		return old;
+	}
+
+	@Override
+	public synchronized void add(int index, Person person) {
+		persons.add(index, person);
+		byId.put(person.getId(), person);
+		modCount++;
+	}
+
+	@Override
+	public synchronized Person remove(int index) {
+		Person old = persons.remove(index);
+		forget(old);
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public synchronized Person findPerson(int id) {
+		return byId.get(id);
+	}
+
+	@Override
+	public synchronized Person peekPerson(int id) {
+		return byId.get(id);
+	}
+
+	@Override
+	public synchronized int indexOfPerson(int id) {
+		Person person = byId.get(id);
+		if (person == null) {
+			return -1;
+		}
+		for (int i = 0; i < persons.size(); i++) {
+			if (persons.get(i) == person) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public synchronized List<Person> snapshot() {
+		return new ArrayList<Person>(persons);
+	}
+
+	@Override
+	public CacheStats stats() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private void forget(Person person) {
+		if (byId.get(person.getId()) == person) {
+			byId.remove(person.getId());
+		}
+	}
+}
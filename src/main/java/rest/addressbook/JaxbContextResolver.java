@@ -0,0 +1,42 @@
+package rest.addressbook;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Provider;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+
+import org.eclipse.persistence.jaxb.JAXBContextFactory;
+
+/**
+ * Provides a single JAXB context for every entity of the service. The context
+ * is created when the application is configured, instead of one context per
+ * entity class on the first request that uses it.
+ *
+ */
+@Provider
+public class JaxbContextResolver implements ContextResolver<JAXBContext> {
+
+	private static final Class<?>[] ENTITIES = { AddressBook.class,
+			Person.class, PhoneNumber.class, DuplicateGroup.class,
+			HealthReport.class, CacheStats.class };
+
+	private final Set<Class<?>> entities = new HashSet<Class<?>>(Arrays.asList(ENTITIES));
+	private final JAXBContext context;
+
+	public JaxbContextResolver() {
+		try {
+			context = JAXBContextFactory.createContext(ENTITIES, null);
+		} catch (JAXBException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public JAXBContext getContext(Class<?> type) {
+		return entities.contains(type) ? context : null;
+	}
+}
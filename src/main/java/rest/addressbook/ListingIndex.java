@@ -0,0 +1,301 @@
+package rest.addressbook;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes that answer filtered and sorted listings of an address book
+ * without reading every person. There is a bitmap of person identifiers for
+ * each phone type and for persons with an email, and the identifiers are
+ * also kept ordered by name. A listing in identifier order intersects the
+ * bitmaps of its filters and counts the bits of whole words to skip to its
+ * offset. A listing in name order uses the name order, which is split in
+ * blocks that count their persons by the filters they match, so whole blocks
+ * are skipped until the block that holds the offset.
+ *
+ */
+public class ListingIndex {
+
+	/**
+	 * The orders of a listing
+	 */
+	public enum Sort {
+		ID, NAME
+	}
+
+	/**
+	 * The number of persons above which a block of the name order is split
+	 */
+	private static final int MAX_BLOCK = 1024;
+
+	/**
+	 * The number of combinations of the filters: having an email and having
+	 * each phone type
+	 */
+	private static final int PROFILES = 1 << (1 + PhoneType.values().length);
+
+	private static final Comparator<NameKey> BY_NAME = new Comparator<NameKey>() {
+		@Override
+		public int compare(NameKey a, NameKey b) {
+			if (a.name == null || b.name == null) {
+				int c = a.name == null ? (b.name == null ? 0 : -1) : 1;
+				return c != 0 ? c : Integer.compare(a.id, b.id);
+			}
+			int c = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+			if (c == 0) {
+				c = a.name.compareTo(b.name);
+			}
+			return c != 0 ? c : Integer.compare(a.id, b.id);
+		}
+	};
+
+	private final BitSet all = new BitSet();
+	private final BitSet withEmail = new BitSet();
+	private final Map<PhoneType, BitSet> byPhoneType = new EnumMap<PhoneType, BitSet>(PhoneType.class);
+	private final Map<Integer, NameKey> names = new HashMap<Integer, NameKey>();
+	private final List<Block> byName = new ArrayList<Block>();
+
+	public ListingIndex() {
+		for (PhoneType type : PhoneType.values()) {
+			byPhoneType.put(type, new BitSet());
+		}
+	}
+
+	/**
+	 * Builds an index with the persons of an address book.
+	 * @param addressBook an address book
+	 */
+	public ListingIndex(AddressBook addressBook) {
+		this();
+		for (Person p : addressBook.getPersonList()) {
+			add(p);
+		}
+	}
+
+	/**
+	 * Indexes a person. If a person with the same identifier is already
+	 * indexed, it is replaced.
+	 * @param person a person
+	 */
+	public synchronized void add(Person person) {
+		int id = person.getId();
+		remove(id);
+		all.set(id);
+		if (person.hasEmail()) {
+			withEmail.set(id);
+		}
+		for (PhoneNumber phone : person.getPhoneList()) {
+			if (phone.getType() != null) {
+				byPhoneType.get(phone.getType()).set(id);
+			}
+		}
+		NameKey key = new NameKey(person.getName(), id, profile(person));
+		names.put(id, key);
+		insert(key);
+	}
+
+	/**
+	 * Removes a person from the index.
+	 * @param id the unique identifier of a person
+	 */
+	public synchronized void remove(int id) {
+		NameKey key = names.remove(id);
+		if (key == null) {
+			return;
+		}
+		delete(key);
+		all.clear(id);
+		withEmail.clear(id);
+		for (BitSet ids : byPhoneType.values()) {
+			ids.clear(id);
+		}
+	}
+
+	/**
+	 * Lists a page of the persons that match some filters.
+	 * @param sort the order of the listing
+	 * @param phoneTypes the phone types that every person must have
+	 * @param hasEmail if not null, whether the persons must have an email or not
+	 * @param offset the number of matching persons skipped
+	 * @param limit the maximum number of persons listed
+	 * @return the unique identifiers of the persons in the page.
+	 */
+	public synchronized List<Integer> list(Sort sort, Collection<PhoneType> phoneTypes,
+			Boolean hasEmail, int offset, int limit) {
+		List<Integer> page = new ArrayList<Integer>(Math.min(limit, 1024));
+		if (sort == Sort.NAME) {
+			listByName(accepted(phoneTypes, hasEmail), offset, limit, page);
+			return page;
+		}
+		BitSet matching = (BitSet) all.clone();
+		for (PhoneType type : phoneTypes) {
+			matching.and(byPhoneType.get(type));
+		}
+		if (Boolean.TRUE.equals(hasEmail)) {
+			matching.and(withEmail);
+		} else if (Boolean.FALSE.equals(hasEmail)) {
+			matching.andNot(withEmail);
+		}
+		// Skip whole words of the bitmap while they are before the offset
+		long[] words = matching.toLongArray();
+		int word = 0;
+		int skipped = 0;
+		while (word < words.length && skipped + Long.bitCount(words[word]) <= offset) {
+			skipped += Long.bitCount(words[word]);
+			word++;
+		}
+		for (int id = matching.nextSetBit(word * 64); id >= 0 && page.size() < limit;
+				id = matching.nextSetBit(id + 1)) {
+			if (skipped++ >= offset) {
+				page.add(id);
+			}
+		}
+		return page;
+	}
+
+	private void listByName(boolean[] accepted, int offset, int limit, List<Integer> page) {
+		int skipped = 0;
+		for (Block block : byName) {
+			if (page.size() == limit) {
+				return;
+			}
+			if (page.isEmpty()) {
+				int matches = block.matches(accepted);
+				if (skipped + matches <= offset) {
+					skipped += matches;
+					continue;
+				}
+			}
+			for (NameKey key : block.keys) {
+				if (page.size() == limit) {
+					return;
+				}
+				if (accepted[key.profile] && skipped++ >= offset) {
+					page.add(key.id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The profiles of the persons that pass some filters.
+	 */
+	private static boolean[] accepted(Collection<PhoneType> phoneTypes, Boolean hasEmail) {
+		int required = 0;
+		for (PhoneType type : phoneTypes) {
+			required |= 2 << type.ordinal();
+		}
+		boolean[] accepted = new boolean[PROFILES];
+		for (int profile = 0; profile < PROFILES; profile++) {
+			accepted[profile] = (profile & required) == required
+					&& (hasEmail == null || hasEmail == ((profile & 1) != 0));
+		}
+		return accepted;
+	}
+
+	/**
+	 * The filters that a person matches, as bits: having an email, then
+	 * having each phone type.
+	 */
+	private static int profile(Person person) {
+		int profile = person.hasEmail() ? 1 : 0;
+		for (PhoneNumber phone : person.getPhoneList()) {
+			if (phone.getType() != null) {
+				profile |= 2 << phone.getType().ordinal();
+			}
+		}
+		return profile;
+	}
+
+	private void insert(NameKey key) {
+		if (byName.isEmpty()) {
+			byName.add(new Block());
+		}
+		int b = blockOf(key);
+		Block block = byName.get(b);
+		int i = Collections.binarySearch(block.keys, key, BY_NAME);
+		block.keys.add(-i - 1, key);
+		block.counts[key.profile]++;
+		if (block.keys.size() > MAX_BLOCK) {
+			int half = block.keys.size() / 2;
+			Block tail = new Block();
+			for (NameKey moved : block.keys.subList(half, block.keys.size())) {
+				tail.keys.add(moved);
+				tail.counts[moved.profile]++;
+				block.counts[moved.profile]--;
+			}
+			block.keys.subList(half, block.keys.size()).clear();
+			byName.add(b + 1, tail);
+		}
+	}
+
+	private void delete(NameKey key) {
+		int b = blockOf(key);
+		Block block = byName.get(b);
+		int i = Collections.binarySearch(block.keys, key, BY_NAME);
+		if (i < 0) {
+			return;
+		}
+		block.keys.remove(i);
+		block.counts[key.profile]--;
+		if (block.keys.isEmpty()) {
+			byName.remove(b);
+		}
+	}
+
+	/**
+	 * The block where a key is or would be: the first block whose last key
+	 * is not before it, or else the last block.
+	 */
+	private int blockOf(NameKey key) {
+		int low = 0;
+		int high = byName.size() - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			List<NameKey> keys = byName.get(middle).keys;
+			if (BY_NAME.compare(keys.get(keys.size() - 1), key) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * A run of the name order, with the number of its persons of each profile
+	 */
+	private static class Block {
+		private final List<NameKey> keys = new ArrayList<NameKey>();
+		private final int[] counts = new int[PROFILES];
+
+		int matches(boolean[] accepted) {
+			int matches = 0;
+			for (int profile = 0; profile < PROFILES; profile++) {
+				if (accepted[profile]) {
+					matches += counts[profile];
+				}
+			}
+			return matches;
+		}
+	}
+
+	private static class NameKey {
+		private final String name;
+		private final int id;
+		private final int profile;
+
+		NameKey(String name, int id, int profile) {
+			this.name = name;
+			this.id = id;
+			this.profile = profile;
+		}
+	}
+}
@@ -4,6 +4,9 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlTransient;
+
 /**
  * A person entry in an address book
  *
@@ -14,6 +17,7 @@ public class Person {
 	private int id;
 	private String email;
 	private URI href;
+	private HrefTemplate hrefTemplate;
 	private List<PhoneNumber> phoneList = new ArrayList<PhoneNumber>();
 	
 	public String getName() {
@@ -60,7 +64,47 @@ public class Person {
 		this.href = href;
 	}
 	
+	@XmlTransient
 	public URI getHref() {
+		if (href == null && hrefTemplate != null) {
+			return hrefTemplate.toUri(id);
+		}
 		return href;
 	}
+
+	/**
+	 * The URI of this person as it is serialized. A person published under
+	 * a template writes it without building a {@link URI}.
+	 * @return an absolute URI, or null if this person has none.
+	 */
+	@XmlElement(name = "href")
+	String getHrefText() {
+		if (href == null && hrefTemplate != null) {
+			return hrefTemplate.toString(id);
+		}
+		return href == null ? null : href.toString();
+	}
+
+	void setHrefText(String href) {
+		setHref(href == null ? null : URI.create(href));
+	}
+
+	/**
+	 * Publishes this person under a template. From now on the URI of this
+	 * person is derived from the template and its identifier.
+	 * @param hrefTemplate a shared template
+	 */
+	public void setHrefTemplate(HrefTemplate hrefTemplate) {
+		this.hrefTemplate = hrefTemplate;
+		this.href = null;
+	}
+
+	/**
+	 * The template this person is published under.
+	 * @return a shared template, or null if this person is not published.
+	 */
+	@XmlTransient
+	HrefTemplate getHrefTemplate() {
+		return hrefTemplate;
+	}
 }
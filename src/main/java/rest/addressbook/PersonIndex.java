@@ -0,0 +1,480 @@
+package rest.addressbook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An inverted index over the name and email user tokens of the persons in an
+ * address book. It answers approximate queries: a query token matches an
+ * indexed token if it is equal, a prefix or a few edits away. Candidate
+ * tokens for edits are found through the trigrams they share with the query
+ * token, among the indexed tokens of a similar length.
+ *
+ * A person scores the best similarity of its tokens to each query token,
+ * summed over the query. The persons of the rarest query tokens are scored
+ * first, and those of each query token best matches first; the search stops
+ * when no person left could score more than the ones found, so the persons
+ * of very common tokens are only read while they could still make it.
+ * Persons with equal scores are interchangeable: the ones that take the last
+ * places depend on the order they are read in.
+ *
+ */
+public class PersonIndex {
+
+	/**
+	 * Query tokens shorter than this only match equal tokens or prefixes
+	 */
+	private static final int MIN_FUZZY_LENGTH = 4;
+
+	/**
+	 * Query tokens at least this long match with two edits, shorter ones with one
+	 */
+	private static final int TWO_EDITS_LENGTH = 8;
+
+	/**
+	 * The maximum number of indexed tokens that a query token is a prefix of
+	 */
+	private static final int MAX_PREFIXES = 64;
+
+	private final Map<Integer, String[]> persons = new HashMap<Integer, String[]>();
+	private final Map<String, Token> vocabulary = new HashMap<String, Token>();
+	private final NavigableSet<String> sortedVocabulary = new TreeSet<String>();
+	private final Map<String, IntList> trigrams = new HashMap<String, IntList>();
+	private Token[] tokensByNumber = new Token[1024];
+	private final IntList freeNumbers = new IntList();
+	private int nextNumber;
+	// Scratch space of the queries, guarded by the lock of the index
+	private int[] shared = new int[1024];
+	private final IntList touched = new IntList();
+
+	public PersonIndex() {
+	}
+
+	/**
+	 * Builds an index with the persons of an address book.
+	 * @param addressBook an address book
+	 */
+	public PersonIndex(AddressBook addressBook) {
+		for (Person p : addressBook.getPersonList()) {
+			add(p);
+		}
+	}
+
+	/**
+	 * Indexes a person. If a person with the same identifier is already
+	 * indexed, it is replaced.
+	 * @param person a person
+	 */
+	public synchronized void add(Person person) {
+		remove(person.getId());
+		Set<String> tokens = tokens(person);
+		persons.put(person.getId(), tokens.toArray(new String[tokens.size()]));
+		for (String text : tokens) {
+			Token token = vocabulary.get(text);
+			if (token == null) {
+				token = newToken(text);
+			}
+			token.ids.add(person.getId());
+		}
+	}
+
+	/**
+	 * Removes a person from the index.
+	 * @param id the unique identifier of a person
+	 */
+	public synchronized void remove(int id) {
+		String[] old = persons.remove(id);
+		if (old == null) {
+			return;
+		}
+		for (String text : old) {
+			Token token = vocabulary.get(text);
+			if (token != null && token.ids.remove(id) && token.ids.isEmpty()) {
+				removeToken(token);
+			}
+		}
+	}
+
+	/**
+	 * Finds the persons that best match a query.
+	 * @param query free text
+	 * @param limit the maximum number of results
+	 * @return the unique identifiers of the matching persons, best first.
+	 */
+	public synchronized List<Integer> search(String query, int limit) {
+		if (limit < 1) {
+			return new ArrayList<Integer>();
+		}
+		List<Map<String, Float>> matches = queryMatches(query);
+		List<List<Map.Entry<String, Float>>> byRarity = new ArrayList<List<Map.Entry<String, Float>>>();
+		for (Map<String, Float> tokenMatches : matches) {
+			List<Map.Entry<String, Float>> best = new ArrayList<Map.Entry<String, Float>>(
+					tokenMatches.entrySet());
+			Collections.sort(best, BY_SIMILARITY);
+			byRarity.add(best);
+		}
+		Collections.sort(byRarity, byPostings);
+		// The most that the query tokens from each one on add to a score
+		float[] rest = new float[byRarity.size() + 1];
+		for (int i = byRarity.size() - 1; i >= 0; i--) {
+			List<Map.Entry<String, Float>> best = byRarity.get(i);
+			rest[i] = rest[i + 1] + (best.isEmpty() ? 0 : best.get(0).getValue());
+		}
+		PriorityQueue<Hit> top = new PriorityQueue<Hit>();
+		Set<Integer> scored = new HashSet<Integer>();
+		search:
+		for (int i = 0; i < byRarity.size(); i++) {
+			for (Map.Entry<String, Float> match : byRarity.get(i)) {
+				// A person not scored yet has neither the query tokens read
+				// so far nor a better match of this one
+				float bound = match.getValue() + rest[i + 1];
+				for (Integer id : vocabulary.get(match.getKey()).ids) {
+					if (top.size() == limit && bound <= top.peek().score) {
+						break search;
+					}
+					if (scored.add(id)) {
+						offer(top, new Hit(id, score(persons.get(id), matches)), limit);
+					}
+				}
+			}
+		}
+		return ranked(top);
+	}
+
+	/**
+	 * Scores every indexed person against a query, to check the results of
+	 * {@link #search(String, int)}.
+	 * @param query free text
+	 * @param limit the maximum number of results
+	 * @return the unique identifiers of the matching persons, best first.
+	 */
+	synchronized List<Integer> scan(String query, int limit) {
+		List<Map<String, Float>> matches = queryMatches(query);
+		PriorityQueue<Hit> top = new PriorityQueue<Hit>();
+		for (Map.Entry<Integer, String[]> person : persons.entrySet()) {
+			float score = score(person.getValue(), matches);
+			if (score > 0 && limit > 0) {
+				offer(top, new Hit(person.getKey(), score), limit);
+			}
+		}
+		return ranked(top);
+	}
+
+	/**
+	 * Scores a person against a query, as {@link #search(String, int)} does.
+	 * @param id the unique identifier of a person
+	 * @param query free text
+	 * @return the score, or 0 if the person is not indexed.
+	 */
+	synchronized float score(int id, String query) {
+		String[] tokens = persons.get(id);
+		return tokens == null ? 0 : score(tokens, queryMatches(query));
+	}
+
+	/**
+	 * The indexed tokens similar to each token of a query.
+	 */
+	private List<Map<String, Float>> queryMatches(String query) {
+		List<Map<String, Float>> matches = new ArrayList<Map<String, Float>>();
+		for (String queryToken : tokenize(query)) {
+			matches.add(matches(queryToken));
+		}
+		return matches;
+	}
+
+	private static void offer(PriorityQueue<Hit> top, Hit hit, int limit) {
+		top.add(hit);
+		if (top.size() > limit) {
+			top.poll();
+		}
+	}
+
+	private static List<Integer> ranked(PriorityQueue<Hit> top) {
+		List<Integer> result = new ArrayList<Integer>(top.size());
+		while (!top.isEmpty()) {
+			result.add(top.poll().id);
+		}
+		Collections.reverse(result);
+		return result;
+	}
+
+	/**
+	 * The sum over the query tokens of the best similarity of the tokens of
+	 * a person.
+	 */
+	private static float score(String[] tokens, List<Map<String, Float>> matches) {
+		float score = 0;
+		for (Map<String, Float> tokenMatches : matches) {
+			float best = 0;
+			for (String token : tokens) {
+				Float similarity = tokenMatches.get(token);
+				if (similarity != null && similarity > best) {
+					best = similarity;
+				}
+			}
+			score += best;
+		}
+		return score;
+	}
+
+	/**
+	 * The number of persons that have one of the matches of a query token.
+	 */
+	private int postings(List<Map.Entry<String, Float>> tokenMatches) {
+		int postings = 0;
+		for (Map.Entry<String, Float> match : tokenMatches) {
+			postings += vocabulary.get(match.getKey()).ids.size();
+		}
+		return postings;
+	}
+
+	/**
+	 * The indexed tokens similar to a query token and their similarity.
+	 */
+	private Map<String, Float> matches(String queryToken) {
+		Map<String, Float> result = new HashMap<String, Float>();
+		if (vocabulary.containsKey(queryToken)) {
+			result.put(queryToken, 1f);
+		}
+		int prefixes = 0;
+		for (String text : sortedVocabulary.tailSet(queryToken, false)) {
+			if (!text.startsWith(queryToken) || prefixes++ == MAX_PREFIXES) {
+				break;
+			}
+			result.put(text, 0.5f + 0.4f * queryToken.length() / text.length());
+		}
+		if (queryToken.length() < MIN_FUZZY_LENGTH) {
+			return result;
+		}
+		int maxEdits = queryToken.length() < TWO_EDITS_LENGTH ? 1 : 2;
+		Set<String> grams = trigrams(queryToken);
+		for (int length = queryToken.length() - maxEdits;
+				length <= queryToken.length() + maxEdits; length++) {
+			for (String gram : grams) {
+				IntList similar = trigrams.get(bucket(gram, length));
+				for (int i = 0; similar != null && i < similar.size; i++) {
+					int number = similar.values[i];
+					if (shared[number]++ == 0) {
+						touched.add(number);
+					}
+				}
+			}
+			for (int i = 0; i < touched.size; i++) {
+				int number = touched.values[i];
+				Token token = tokensByNumber[number];
+				// An edit changes at most three trigrams of either token,
+				// the others must be shared
+				boolean near = shared[number] >= Math.max(grams.size(), token.grams) - 3 * maxEdits;
+				shared[number] = 0;
+				if (near && !result.containsKey(token.text)) {
+					int distance = distance(queryToken, token.text, maxEdits);
+					if (distance <= maxEdits) {
+						result.put(token.text, 0.7f * (1 - (float) distance / (maxEdits + 1)));
+					}
+				}
+			}
+			touched.size = 0;
+		}
+		return result;
+	}
+
+	private Token newToken(String text) {
+		int number = freeNumbers.size > 0 ? freeNumbers.values[--freeNumbers.size] : nextNumber++;
+		if (number == tokensByNumber.length) {
+			tokensByNumber = Arrays.copyOf(tokensByNumber, number * 2);
+			shared = Arrays.copyOf(shared, number * 2);
+		}
+		Set<String> grams = trigrams(text);
+		Token token = new Token(text, number, grams.size());
+		tokensByNumber[number] = token;
+		vocabulary.put(text, token);
+		sortedVocabulary.add(text);
+		for (String gram : grams) {
+			String bucket = bucket(gram, text.length());
+			IntList similar = trigrams.get(bucket);
+			if (similar == null) {
+				similar = new IntList();
+				trigrams.put(bucket, similar);
+			}
+			similar.add(number);
+		}
+		return token;
+	}
+
+	private void removeToken(Token token) {
+		vocabulary.remove(token.text);
+		sortedVocabulary.remove(token.text);
+		for (String gram : trigrams(token.text)) {
+			String bucket = bucket(gram, token.text.length());
+			IntList similar = trigrams.get(bucket);
+			similar.remove(token.number);
+			if (similar.size == 0) {
+				trigrams.remove(bucket);
+			}
+		}
+		tokensByNumber[token.number] = null;
+		freeNumbers.add(token.number);
+	}
+
+	/**
+	 * Levenshtein distance between two strings, or a value greater than
+	 * the bound as soon as it is known to exceed it.
+	 */
+	static int distance(String a, String b, int bound) {
+		if (Math.abs(a.length() - b.length()) > bound) {
+			return bound + 1;
+		}
+		int[] previous = new int[b.length() + 1];
+		int[] current = new int[b.length() + 1];
+		for (int j = 0; j <= b.length(); j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= a.length(); i++) {
+			current[0] = i;
+			int rowMin = current[0];
+			for (int j = 1; j <= b.length(); j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1),
+						previous[j - 1] + cost);
+				rowMin = Math.min(rowMin, current[j]);
+			}
+			if (rowMin > bound) {
+				return bound + 1;
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		return previous[b.length()];
+	}
+
+	private static Set<String> tokens(Person person) {
+		Set<String> tokens = tokenize(person.getName());
+		if (person.hasEmail()) {
+			// The domain is shared by too many persons to tell them apart
+			String email = person.getEmail();
+			int at = email.indexOf('@');
+			tokens.addAll(tokenize(at < 0 ? email : email.substring(0, at)));
+		}
+		return tokens;
+	}
+
+	/**
+	 * Splits a text into lower case alphanumeric tokens.
+	 */
+	static Set<String> tokenize(String text) {
+		Set<String> tokens = new LinkedHashSet<String>();
+		if (text == null) {
+			return tokens;
+		}
+		for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+			if (!token.isEmpty()) {
+				tokens.add(token);
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * The key of the indexed tokens of a length that contain a trigram.
+	 */
+	private static String bucket(String gram, int length) {
+		return length + gram;
+	}
+
+	/**
+	 * The trigrams of a token padded with a boundary marker.
+	 */
+	static Set<String> trigrams(String token) {
+		String padded = "$" + token + "$";
+		Set<String> grams = new HashSet<String>();
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			grams.add(padded.substring(i, i + 3));
+		}
+		return grams;
+	}
+
+	private static final Comparator<Map.Entry<String, Float>> BY_SIMILARITY =
+			new Comparator<Map.Entry<String, Float>>() {
+		@Override
+		public int compare(Map.Entry<String, Float> a, Map.Entry<String, Float> b) {
+			return Float.compare(b.getValue(), a.getValue());
+		}
+	};
+
+	private final Comparator<List<Map.Entry<String, Float>>> byPostings =
+			new Comparator<List<Map.Entry<String, Float>>>() {
+		@Override
+		public int compare(List<Map.Entry<String, Float>> a, List<Map.Entry<String, Float>> b) {
+			return Integer.compare(postings(a), postings(b));
+		}
+	};
+
+	/**
+	 * An indexed token: the persons that have it, the number that stands for
+	 * it in the trigram lists and how many distinct trigrams it has.
+	 */
+	private static class Token {
+		private final String text;
+		private final int number;
+		private final int grams;
+		private final Set<Integer> ids = new HashSet<Integer>();
+
+		Token(String text, int number, int grams) {
+			this.text = text;
+			this.number = number;
+			this.grams = grams;
+		}
+	}
+
+	/**
+	 * A growable list of ints, without order once a value is removed.
+	 */
+	private static class IntList {
+		private int[] values = new int[4];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		void remove(int value) {
+			for (int i = 0; i < size; i++) {
+				if (values[i] == value) {
+					values[i] = values[--size];
+					return;
+				}
+			}
+		}
+	}
+
+	private static class Hit implements Comparable<Hit> {
+		private final int id;
+		private final float score;
+
+		Hit(int id, float score) {
+			this.id = id;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Hit other) {
+			int c = Float.compare(score, other.score);
+			return c != 0 ? c : Integer.compare(other.id, id);
+		}
+	}
+}
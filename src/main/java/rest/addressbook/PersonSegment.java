@@ -0,0 +1,163 @@
+package rest.addressbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only file of persons in a compact binary form. A person is
+ * written again when it changes; the previous record is left behind, and
+ * the owner of the segment keeps the length of each record. Records are read
+ * at their position, so readers neither wait for each other nor for the
+ * writer.
+ *
+ * The href of a person published under a template is not written: it is
+ * derived again from the template given when the person is read.
+ *
+ */
+public class PersonSegment implements Closeable {
+
+	private static final PhoneType[] TYPES = PhoneType.values();
+
+	private static final byte NO_HREF = 0;
+	private static final byte TEMPLATE_HREF = 1;
+	private static final byte OWN_HREF = 2;
+
+	private final FileChannel channel;
+	private long size;
+
+	/**
+	 * Creates an empty segment, replacing the file if it exists.
+	 * @param path the segment file
+	 * @throws IOException if the file cannot be created
+	 */
+	public PersonSegment(File path) throws IOException {
+		channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * The number of bytes written, including the records left behind.
+	 * @return a size in bytes.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+
+	/**
+	 * Writes a record at the end of the segment.
+	 * @param record a record, see {@link #encode(Person)}
+	 * @return the offset of the record.
+	 * @throws IOException if the record cannot be written
+	 */
+	public synchronized long append(byte[] record) throws IOException {
+		long offset = size;
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer, offset + buffer.position());
+		}
+		size += record.length;
+		return offset;
+	}
+
+	/**
+	 * Reads a record.
+	 * @param offset the offset of the record
+	 * @param length the length of the record
+	 * @return the record.
+	 * @throws IOException if the record cannot be read
+	 */
+	public byte[] read(long offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new EOFException("Record at " + offset + " is truncated");
+			}
+		}
+		return buffer.array();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Writes a person as a record.
+	 * @param person a person
+	 * @return the record.
+	 * @throws IOException if the person cannot be written
+	 */
+	public static byte[] encode(Person person) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(person.getId());
+		writeString(out, person.getName());
+		writeString(out, person.getEmail());
+		if (person.getHrefTemplate() != null) {
+			out.writeByte(TEMPLATE_HREF);
+		} else if (person.getHref() != null) {
+			out.writeByte(OWN_HREF);
+			out.writeUTF(person.getHref().toString());
+		} else {
+			out.writeByte(NO_HREF);
+		}
+		out.writeInt(person.getPhoneList().size());
+		for (PhoneNumber phone : person.getPhoneList()) {
+			writeString(out, phone.getNumber());
+			out.writeByte(phone.getType() == null ? -1 : phone.getType().ordinal());
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads a person from a record.
+	 * @param record a record, see {@link #encode(Person)}
+	 * @param hrefTemplate the template of the persons published under one
+	 * @return a new person object.
+	 * @throws IOException if the person cannot be read
+	 */
+	public static Person decode(byte[] record, HrefTemplate hrefTemplate) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		Person person = new Person();
+		person.setId(in.readInt());
+		person.setName(readString(in));
+		person.setEmail(readString(in));
+		byte href = in.readByte();
+		if (href == TEMPLATE_HREF) {
+			person.setHrefTemplate(hrefTemplate);
+		} else if (href == OWN_HREF) {
+			person.setHref(URI.create(in.readUTF()));
+		}
+		int phones = in.readInt();
+		for (int i = 0; i < phones; i++) {
+			PhoneNumber phone = new PhoneNumber();
+			phone.setNumber(readString(in));
+			byte type = in.readByte();
+			phone.setType(type < 0 ? null : TYPES[type]);
+			person.addPhone(phone);
+		}
+		return person;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -0,0 +1,51 @@
+package rest.addressbook;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * The persons of an address book, in order, that can also be found by their
+ * unique identifier. Walking the list reads every person but does not change
+ * what a store keeps in memory; only lookups by identifier do, unless they
+ * only peek.
+ *
+ */
+public interface PersonStore extends List<Person>, Closeable {
+
+	/**
+	 * Looks up a person.
+	 * @param id the unique identifier of a person
+	 * @return the person, or null if it is not in the store.
+	 */
+	Person findPerson(int id);
+
+	/**
+	 * Looks up a person without counting the lookup, for listings and search
+	 * results: a person that is not in memory is read but not kept.
+	 * @param id the unique identifier of a person
+	 * @return the person, or null if it is not in the store.
+	 */
+	Person peekPerson(int id);
+
+	/**
+	 * The position of a person, without reading any person.
+	 * @param id the unique identifier of a person
+	 * @return the index of the person, or -1 if it is not in the store.
+	 */
+	int indexOfPerson(int id);
+
+	/**
+	 * A copy of the persons, in order, that later changes do not affect. The
+	 * persons are those of the store when the copy starts, except that a
+	 * person removed or replaced while it is copied may be left out or be
+	 * copied in its new version.
+	 * @return a new list.
+	 */
+	List<Person> snapshot();
+
+	/**
+	 * A snapshot of the metrics of the cache of hot persons.
+	 * @return the cache statistics, or null if every person is kept in memory.
+	 */
+	CacheStats stats();
+}
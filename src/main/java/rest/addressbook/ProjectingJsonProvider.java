@@ -0,0 +1,104 @@
+package rest.addressbook;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import org.eclipse.persistence.jaxb.JAXBContext;
+import org.eclipse.persistence.jaxb.JAXBMarshaller;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.eclipse.persistence.jaxb.ObjectGraph;
+import org.eclipse.persistence.jaxb.Subgraph;
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
+
+/**
+ * A JSON provider that projects persons to the attributes listed in the
+ * fields query parameter, e.g. {@code ?fields=id,name,phoneList.number}. The
+ * projection is an object graph given to the marshaller, so attributes that
+ * are not requested are never read. Unknown attributes are ignored.
+ *
+ */
+public class ProjectingJsonProvider extends MOXyJsonProvider {
+
+	/**
+	 * The query parameter with the requested attributes
+	 */
+	public static final String FIELDS = "fields";
+
+	private static final List<String> PERSON_ATTRIBUTES = Arrays.asList(
+			"name", "id", "email", "href", "phoneList");
+	private static final List<String> PHONE_ATTRIBUTES = Arrays.asList(
+			"number", "type");
+
+	@Context
+	UriInfo uriInfo;
+
+	@Override
+	protected void preWriteTo(Object object, Class<?> type, Type genericType,
+			Annotation[] annotations, MediaType mediaType,
+			MultivaluedMap<String, Object> httpHeaders, Marshaller marshaller)
+			throws JAXBException {
+		super.preWriteTo(object, type, genericType, annotations, mediaType,
+				httpHeaders, marshaller);
+		List<String> fields = uriInfo.getQueryParameters().get(FIELDS);
+		if (fields == null) {
+			return;
+		}
+		List<String> personAttributes = new ArrayList<String>();
+		List<String> phoneAttributes = new ArrayList<String>();
+		for (String field : fields) {
+			for (String attribute : field.split(",")) {
+				attribute = attribute.trim();
+				if (attribute.equals("href")) {
+					// Serialized through a text property, see Person
+					personAttributes.add("hrefText");
+				} else if (PERSON_ATTRIBUTES.contains(attribute)) {
+					personAttributes.add(attribute);
+				} else if (attribute.startsWith("phoneList.")
+						&& PHONE_ATTRIBUTES.contains(attribute.substring("phoneList.".length()))) {
+					phoneAttributes.add(attribute.substring("phoneList.".length()));
+				}
+			}
+		}
+		if (personAttributes.isEmpty() && phoneAttributes.isEmpty()) {
+			return;
+		}
+		if (personAttributes.contains("phoneList")) {
+			// The whole phone list was requested
+			phoneAttributes.clear();
+		}
+		String[] persons = personAttributes.toArray(new String[personAttributes.size()]);
+		String[] phones = phoneAttributes.toArray(new String[phoneAttributes.size()]);
+
+		JAXBContext context = ((JAXBMarshaller) marshaller).getJaxbContext();
+		Class<?> domainClass = getDomainClass(genericType);
+		ObjectGraph graph;
+		if (domainClass == AddressBook.class) {
+			graph = context.createObjectGraph(AddressBook.class);
+			graph.addAttributeNodes("nextId");
+			Subgraph personGraph = graph.addSubgraph("personList");
+			personGraph.addAttributeNodes(persons);
+			if (phones.length > 0) {
+				personGraph.addSubgraph("phoneList").addAttributeNodes(phones);
+			}
+		} else if (domainClass == Person.class) {
+			graph = context.createObjectGraph(Person.class);
+			graph.addAttributeNodes(persons);
+			if (phones.length > 0) {
+				graph.addSubgraph("phoneList").addAttributeNodes(phones);
+			}
+		} else {
+			return;
+		}
+		marshaller.setProperty(MarshallerProperties.OBJECT_GRAPH, graph);
+	}
+}
@@ -1,23 +1,100 @@
 package rest.addressbook;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriBuilder;
 
 import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.Transport;
+import org.glassfish.grizzly.http.server.HttpHandler;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.http2.Http2AddOn;
+import org.glassfish.grizzly.http2.Http2FrameCodec;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpContainer;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ResourceConfig;
 
 public class Server {
 	private static final Logger LOGGER = Grizzly.logger(Server.class);
+
+	/**
+	 * The HTTP/2 codec logs every frame at INFO. The reference keeps the
+	 * quieter level from being lost if the logger is collected.
+	 */
+	private static final Logger FRAME_LOGGER = Grizzly.logger(Http2FrameCodec.class);
 	
+	/**
+	 * System property that enables HTTP/2 (h2c) on the listener
+	 */
+	public static final String HTTP2_PROPERTY = "addressbook.http2";
+
+	/**
+	 * System property with the number of warm-up rounds run before the
+	 * server is announced as ready
+	 */
+	public static final String WARMUP_PROPERTY = "addressbook.warmup";
+
+	/**
+	 * System property with the number of persons kept in memory. If it is
+	 * set, the other persons are kept in an on-disk segment; the indexes
+	 * still keep some data of every person in memory.
+	 */
+	public static final String CACHE_PROPERTY = "addressbook.cache";
+
+	/**
+	 * System property with the path of the on-disk segment
+	 */
+	public static final String SEGMENT_PROPERTY = "addressbook.segment";
+
+	/**
+	 * System property with the minimum number of seconds between two scans
+	 * for duplicated persons
+	 */
+	public static final String DUPLICATES_INTERVAL_PROPERTY = "addressbook.duplicates.interval";
+
 	public static void main(String[] args) {
+		long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+		long mainStart = System.currentTimeMillis();
 		LOGGER.setLevel(Level.FINER);
 		AddressBook ab = new AddressBook();
+		URI uri = UriBuilder.fromUri("http://localhost/").port(8080).build();
+		// Health checks are answered while the data is recovered
+		ServerStatus status = new ServerStatus();
+		HttpServer server = createServer(uri, ApplicationConfig.recovering(ab, status), status,
+				Boolean.getBoolean(HTTP2_PROPERTY));
+		try {
+			server.start();
+		} catch (IOException ioe) {
+			LOGGER.log(Level.SEVERE, ioe.toString(), ioe);
+			return;
+		}
+		long listenerStart = System.currentTimeMillis();
+		Integer cacheSize = Integer.getInteger(CACHE_PROPERTY);
+		if (cacheSize != null) {
+			try {
+				File segment = new File(System.getProperty(SEGMENT_PROPERTY, "addressbook.seg"));
+				ab.setPersonList(new TieredPersonList(segment, cacheSize));
+				LOGGER.info("Keeping " + cacheSize + " persons in memory, the rest in " + segment);
+			} catch (IOException ioe) {
+				LOGGER.log(Level.SEVERE, ioe.toString(), ioe);
+				server.shutdownNow();
+				return;
+			}
+		}
 		
 		// Some dummy data
 		Person salvador = new Person();
@@ -25,23 +102,150 @@ public class Server {
 		salvador.setId(ab.nextId());
 		Person juan = new Person();
 		juan.setName("Juan");
-		juan.setId(ab.getNextId());
+		juan.setId(ab.nextId());
 		ab.getPersonList().add(salvador);
 		ab.getPersonList().add(juan);
 		
-		URI uri = UriBuilder.fromUri("http://localhost/").port(8080).build();
-		HttpServer server = GrizzlyHttpServerFactory.createHttpServer(uri,
-				new ApplicationConfig(ab));
+		long configStart = System.currentTimeMillis();
+		ApplicationConfig config = new ApplicationConfig(ab, status);
+		Long duplicatesInterval = Long.getLong(DUPLICATES_INTERVAL_PROPERTY);
+		if (duplicatesInterval != null) {
+			config.getDuplicateScanner().setInterval(
+					TimeUnit.SECONDS.toMillis(duplicatesInterval));
+		}
+		long modelStart = System.currentTimeMillis();
 		try (Scanner scan = new Scanner(System.in)){
-			server.start();
+			recovered(server, config);
+			long warmUpStart = System.currentTimeMillis();
+			announce(uri, config, ab, Integer.getInteger(WARMUP_PROPERTY, 0));
+			long ready = System.currentTimeMillis();
+			LOGGER.info(String.format("Ready in %d ms: JVM %d ms, listener %d ms, data %d ms, "
+					+ "configuration %d ms, resource model %d ms, warm-up %d ms",
+					ready - jvmStart, mainStart - jvmStart, listenerStart - mainStart,
+					configStart - listenerStart, modelStart - configStart,
+					warmUpStart - modelStart, ready - warmUpStart));
 			LOGGER.info("Press 's'+'enter' to shutdown now the server...");
 			while(!scan.nextLine().equals("s"));
-		} catch (IOException ioe) {
-			LOGGER.log(Level.SEVERE, ioe.toString(), ioe);
 		} finally {
 			LOGGER.info("Shuting now");
 			server.shutdownNow();
+			try {
+				ab.close();
+			} catch (IOException ioe) {
+				LOGGER.log(Level.WARNING, ioe.toString(), ioe);
+			}
 			LOGGER.info("Server stopped");
 		}
 	}
+
+	/**
+	 * Replaces the configuration of a started server, once the address book
+	 * it serves has been recovered and indexed. The state stays
+	 * {@link ServerStatus.State#RECOVERING} until the server is announced.
+	 * @param server a server created with
+	 * {@link ApplicationConfig#recovering(AddressBook, ServerStatus)}
+	 * @param config the full application configuration, with the same status
+	 */
+	public static void recovered(HttpServer server, ApplicationConfig config) {
+		for (HttpHandler handler : server.getServerConfiguration()
+				.getHttpHandlersWithMapping().keySet()) {
+			if (handler instanceof GrizzlyHttpContainer) {
+				((GrizzlyHttpContainer) handler).reload(config);
+			}
+		}
+	}
+
+	/**
+	 * Warms up a started server and then announces it as ready, so load
+	 * balancers do not send traffic to it while it is still cold.
+	 * @param uri the base URI of the service
+	 * @param config the application configuration
+	 * @param ab the address book served
+	 * @param rounds the number of warm-up rounds, none if zero
+	 */
+	public static void announce(URI uri, ApplicationConfig config, AddressBook ab, int rounds) {
+		config.getServerStatus().setState(ServerStatus.State.WARMING_UP);
+		warmUp(uri, ab, rounds);
+		config.getServerStatus().setState(ServerStatus.State.READY);
+	}
+
+	/**
+	 * Sends the requests of the hot read paths to a started server, so that
+	 * classes are loaded and compiled before real clients arrive. Only safe
+	 * methods are used, so the address book is not modified.
+	 * @param uri the base URI of the service
+	 * @param ab the address book served
+	 * @param rounds the number of rounds, none if zero
+	 */
+	public static void warmUp(URI uri, AddressBook ab, int rounds) {
+		if (rounds <= 0) {
+			return;
+		}
+		Client client = ClientBuilder.newClient();
+		try {
+			WebTarget contacts = client.target(uri).path("contacts");
+			String id = ab.getPersonList().isEmpty() ? "0"
+					: Integer.toString(ab.getPersonList().get(0).getId());
+			for (int i = 0; i < rounds; i++) {
+				contacts.request(MediaType.APPLICATION_JSON).get().close();
+				contacts.path("person").path(id)
+						.request(MediaType.APPLICATION_JSON).get().close();
+				contacts.path("query").queryParam("q", "warmup")
+						.request(MediaType.APPLICATION_JSON).get().close();
+			}
+		} catch (ProcessingException pe) {
+			LOGGER.log(Level.WARNING, "Warm-up failed: " + pe, pe);
+		} finally {
+			client.close();
+		}
+	}
+
+	/**
+	 * Creates a (not started) server for the given configuration.
+	 * When HTTP/2 is enabled, clear-text clients may upgrade a connection
+	 * to h2c and multiplex many requests over it with compressed headers;
+	 * plain HTTP/1.1 clients keep working on the same port.
+	 * @param uri the base URI of the service
+	 * @param config the application configuration
+	 * @param http2 true to enable HTTP/2 on the listener
+	 * @return the server
+	 */
+	public static HttpServer createServer(URI uri, ApplicationConfig config,
+			boolean http2) {
+		return createServer(uri, config, config.getServerStatus(), http2);
+	}
+
+	/**
+	 * Creates a (not started) server for the given configuration, whose
+	 * state is tracked by the given status.
+	 * @param uri the base URI of the service
+	 * @param config the application configuration
+	 * @param status the status reported by the health service
+	 * @param http2 true to enable HTTP/2 on the listener
+	 * @return the server
+	 */
+	public static HttpServer createServer(URI uri, ResourceConfig config, ServerStatus status,
+			boolean http2) {
+		HttpServer server = GrizzlyHttpServerFactory.createHttpServer(uri,
+				config, false);
+		if (http2 && !FRAME_LOGGER.isLoggable(Level.FINE)) {
+			FRAME_LOGGER.setLevel(Level.WARNING);
+		}
+		server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(
+				status.requestProbe(
+						UriBuilder.fromUri(uri).path("health").build().getPath()));
+		for (NetworkListener listener : server.getListeners()) {
+			if (http2) {
+				listener.registerAddOn(new Http2AddOn());
+			}
+			Transport transport = listener.getTransport();
+			transport.getThreadPoolMonitoringConfig().addProbes(
+					status.queueProbe());
+			ThreadPoolConfig workers = transport.getWorkerThreadPoolConfig();
+			if (workers != null) {
+				status.setMaxWorkers(workers.getMaxPoolSize());
+			}
+		}
+		return server;
+	}
 }
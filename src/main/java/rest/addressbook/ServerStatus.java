@@ -0,0 +1,206 @@
+package rest.addressbook;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.Note;
+import org.glassfish.grizzly.http.server.HttpServerFilter;
+import org.glassfish.grizzly.http.server.HttpServerProbe;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.threadpool.AbstractThreadPool;
+import org.glassfish.grizzly.threadpool.ThreadPoolProbe;
+
+/**
+ * The load and lifecycle state of a server, used to decide if it should
+ * receive traffic. It tracks the requests in progress, the tasks waiting for a
+ * worker thread and the latency of the requests completed in the last seconds.
+ * Only requests received once the server is ready are tracked, so warm-up
+ * traffic does not count, and a server that receives no traffic has no
+ * latency to report.
+ *
+ */
+public class ServerStatus {
+
+	/**
+	 * The lifecycle of a server
+	 */
+	public enum State {
+		RECOVERING, WARMING_UP, READY
+	}
+
+	/**
+	 * Fraction of busy workers above which the server is saturated
+	 */
+	public static final double MAX_SATURATION = 0.9;
+
+	/**
+	 * Recent p99 latency above which the server is saturated
+	 */
+	public static final double MAX_P99_MILLIS = 1000;
+
+	/**
+	 * Default age of the oldest latency used for the p99
+	 */
+	public static final long DEFAULT_LATENCY_WINDOW_SECONDS = 10;
+
+	private static final int WINDOW = 1024;
+
+	private static final Note<Long> START = Request.createNote(ServerStatus.class.getName() + ".start");
+
+	private volatile State state = State.RECOVERING;
+	private volatile int maxWorkers;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final long latencyWindow;
+	private final long[] latencies = new long[WINDOW];
+	private final long[] completions = new long[WINDOW];
+	private long recorded;
+
+	public ServerStatus() {
+		this(TimeUnit.SECONDS.toNanos(DEFAULT_LATENCY_WINDOW_SECONDS));
+	}
+
+	/**
+	 * Creates a status that forgets latencies after the given time.
+	 * @param latencyWindow a time in nanoseconds
+	 */
+	ServerStatus(long latencyWindow) {
+		this.latencyWindow = latencyWindow;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public void setState(State state) {
+		this.state = state;
+	}
+
+	/**
+	 * The size of the worker pool that serves requests.
+	 * @return a number of threads, or 0 if unknown.
+	 */
+	public int getMaxWorkers() {
+		return maxWorkers;
+	}
+
+	public void setMaxWorkers(int maxWorkers) {
+		this.maxWorkers = maxWorkers;
+	}
+
+	public void requestStarted() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Records the end of a request.
+	 * @param latency the time spent on the request, in nanoseconds
+	 */
+	public void requestCompleted(long latency) {
+		synchronized (latencies) {
+			int i = (int) (recorded++ % WINDOW);
+			latencies[i] = latency;
+			completions[i] = System.nanoTime();
+		}
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * A probe that tracks the requests received by an HTTP server, from the
+	 * time they are parsed until their response is finished. It sees every
+	 * request, including those that end with an error before reaching the
+	 * application.
+	 * @param excludedPath the path of requests that are not tracked, such as
+	 * health checks, so frequent probes do not hide slow requests
+	 * @return an HTTP server probe.
+	 */
+	public HttpServerProbe requestProbe(final String excludedPath) {
+		// The probe interface of Grizzly takes raw connections
+		@SuppressWarnings("rawtypes")
+		HttpServerProbe probe = new HttpServerProbe.Adapter() {
+			@Override
+			public void onRequestReceiveEvent(HttpServerFilter filter,
+					Connection connection, Request request) {
+				if (state == State.READY && !request.getRequestURI().startsWith(excludedPath)) {
+					request.setNote(START, System.nanoTime());
+					requestStarted();
+				}
+			}
+
+			@Override
+			public void onRequestCompleteEvent(HttpServerFilter filter,
+					Connection connection, Response response) {
+				Long start = response.getRequest().removeNote(START);
+				if (start != null) {
+					requestCompleted(System.nanoTime() - start);
+				}
+			}
+		};
+		return probe;
+	}
+
+	/**
+	 * A probe that tracks the depth of the queue of a worker pool.
+	 * @return a thread pool probe.
+	 */
+	public ThreadPoolProbe queueProbe() {
+		return new ThreadPoolProbe.Adapter() {
+			@Override
+			public void onTaskQueueEvent(AbstractThreadPool threadPool, Runnable task) {
+				queued.incrementAndGet();
+			}
+
+			@Override
+			public void onTaskDequeueEvent(AbstractThreadPool threadPool, Runnable task) {
+				queued.decrementAndGet();
+			}
+
+			@Override
+			public void onTaskCancelEvent(AbstractThreadPool threadPool, Runnable task) {
+				queued.decrementAndGet();
+			}
+		};
+	}
+
+	/**
+	 * A snapshot of the status.
+	 * @return a health report.
+	 */
+	public HealthReport report() {
+		HealthReport report = new HealthReport();
+		report.setState(state);
+		report.setInFlight(inFlight.get());
+		report.setMaxWorkers(maxWorkers);
+		report.setQueueDepth(Math.max(0, queued.get()));
+		report.setSaturation(maxWorkers == 0 ? 0 : (double) report.getInFlight() / maxWorkers);
+		report.setP99Millis(p99() / 1e6);
+		report.setReady(state == State.READY
+				&& report.getSaturation() < MAX_SATURATION
+				&& (maxWorkers == 0 || report.getQueueDepth() < maxWorkers)
+				&& report.getP99Millis() < MAX_P99_MILLIS);
+		return report;
+	}
+
+	private long p99() {
+		long[] window = new long[WINDOW];
+		int size = 0;
+		long oldest = System.nanoTime() - latencyWindow;
+		synchronized (latencies) {
+			int recent = (int) Math.min(recorded, WINDOW);
+			for (int i = 0; i < recent; i++) {
+				if (completions[i] - oldest >= 0) {
+					window[size++] = latencies[i];
+				}
+			}
+		}
+		if (size == 0) {
+			return 0;
+		}
+		window = Arrays.copyOf(window, size);
+		Arrays.sort(window);
+		return window[(int) Math.ceil(0.99 * size) - 1];
+	}
+}
@@ -0,0 +1,228 @@
+package rest.addressbook;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache with a W-TinyLFU eviction policy. New entries go to a
+ * small LRU window. When the window is full its oldest entry competes with
+ * the oldest entry of the main segment, and the one that has been accessed
+ * more often recently stays. Access frequencies are estimated with a count-min
+ * sketch that is halved periodically, so old popularity fades. The main
+ * segment is a segmented LRU: entries hit again while on probation are
+ * promoted to a protected area.
+ *
+ * This class is thread safe.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public class TinyLfuCache<K, V> {
+
+	private final int capacity;
+	private final int windowCapacity;
+	private final int protectedCapacity;
+	private final LinkedHashMap<K, V> window = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private final LinkedHashMap<K, V> probation = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private final LinkedHashMap<K, V> protectedArea = new LinkedHashMap<K, V>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates a cache.
+	 * @param capacity the maximum number of entries
+	 */
+	public TinyLfuCache(int capacity) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("capacity must be at least 2");
+		}
+		this.capacity = capacity;
+		this.windowCapacity = Math.max(1, capacity / 100);
+		this.protectedCapacity = (int) ((capacity - windowCapacity) * 0.8);
+		this.sketch = new FrequencySketch(capacity);
+	}
+
+	/**
+	 * Looks up an entry, recording the access.
+	 * @param key a key
+	 * @return the value or null if it is not cached.
+	 */
+	public synchronized V get(K key) {
+		sketch.increment(key);
+		V value = window.get(key);
+		if (value == null) {
+			value = protectedArea.get(key);
+		}
+		if (value == null) {
+			value = probation.remove(key);
+			if (value != null) {
+				promote(key, value);
+			}
+		}
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * Looks up an entry without counting a hit or a miss, and without
+	 * raising its estimated frequency.
+	 * @param key a key
+	 * @return the value or null if it is not cached.
+	 */
+	public synchronized V peek(K key) {
+		V value = window.get(key);
+		if (value == null) {
+			value = protectedArea.get(key);
+		}
+		return value != null ? value : probation.get(key);
+	}
+
+	/**
+	 * Adds or replaces an entry. A new entry may be evicted at once if it is
+	 * accessed less often than the entries already cached.
+	 * @param key a key
+	 * @param value a value
+	 */
+	public synchronized void put(K key, V value) {
+		if (window.containsKey(key)) {
+			window.put(key, value);
+		} else if (protectedArea.containsKey(key)) {
+			protectedArea.put(key, value);
+		} else if (probation.containsKey(key)) {
+			probation.put(key, value);
+		} else {
+			window.put(key, value);
+			if (window.size() > windowCapacity) {
+				admit();
+			}
+		}
+	}
+
+	/**
+	 * Removes an entry.
+	 * @param key a key
+	 */
+	public synchronized void remove(K key) {
+		if (window.remove(key) == null && probation.remove(key) == null) {
+			protectedArea.remove(key);
+		}
+	}
+
+	/**
+	 * A snapshot of the metrics of this cache.
+	 * @return the cache statistics.
+	 */
+	public synchronized CacheStats stats() {
+		CacheStats stats = new CacheStats();
+		stats.setCapacity(capacity);
+		stats.setSize(window.size() + probation.size() + protectedArea.size());
+		stats.setHits(hits);
+		stats.setMisses(misses);
+		stats.setEvictions(evictions);
+		stats.setHitRate(hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+		return stats;
+	}
+
+	private void promote(K key, V value) {
+		protectedArea.put(key, value);
+		if (protectedArea.size() > protectedCapacity) {
+			Map.Entry<K, V> demoted = eldest(protectedArea);
+			protectedArea.remove(demoted.getKey());
+			probation.put(demoted.getKey(), demoted.getValue());
+		}
+	}
+
+	/**
+	 * Moves the oldest entry of the window to the main segment if there is
+	 * room or if it is more popular than the victim of the main segment.
+	 */
+	private void admit() {
+		Map.Entry<K, V> candidate = eldest(window);
+		window.remove(candidate.getKey());
+		if (probation.size() + protectedArea.size() < capacity - windowCapacity) {
+			probation.put(candidate.getKey(), candidate.getValue());
+			return;
+		}
+		LinkedHashMap<K, V> victims = probation.isEmpty() ? protectedArea : probation;
+		Map.Entry<K, V> victim = eldest(victims);
+		evictions++;
+		if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+			victims.remove(victim.getKey());
+			probation.put(candidate.getKey(), candidate.getValue());
+		}
+	}
+
+	private static <K, V> Map.Entry<K, V> eldest(LinkedHashMap<K, V> map) {
+		Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+		return it.next();
+	}
+
+	/**
+	 * A count-min sketch of 4-bit counters that halves every counter after a
+	 * number of increments proportional to the cache capacity.
+	 */
+	private static class FrequencySketch {
+		private static final int[] SEEDS = { 0x97cb3127, 0xb5ae1b3d, 0x3c6ef372, 0x9e3779b9 };
+
+		private final byte[][] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int capacity) {
+			int width = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+			table = new byte[SEEDS.length][width];
+			mask = width - 1;
+			sampleSize = 10 * capacity;
+		}
+
+		void increment(Object key) {
+			int hash = spread(key.hashCode());
+			for (int i = 0; i < SEEDS.length; i++) {
+				int index = index(hash, i);
+				if (table[i][index] < 15) {
+					table[i][index]++;
+				}
+			}
+			if (++additions >= sampleSize) {
+				reset();
+			}
+		}
+
+		int frequency(Object key) {
+			int hash = spread(key.hashCode());
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < SEEDS.length; i++) {
+				frequency = Math.min(frequency, table[i][index(hash, i)]);
+			}
+			return frequency;
+		}
+
+		private int index(int hash, int i) {
+			int h = (hash ^ SEEDS[i]) * SEEDS[(i + 1) % SEEDS.length];
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		private void reset() {
+			for (byte[] row : table) {
+				for (int i = 0; i < row.length; i++) {
+					row[i] >>= 1;
+				}
+			}
+			additions /= 2;
+		}
+
+		private static int spread(int hash) {
+			hash *= 0x85ebca6b;
+			return hash ^ (hash >>> 15);
+		}
+	}
+}
@@ -1,21 +1,53 @@
 package rest.addressbook;
 
+import org.eclipse.persistence.jaxb.rs.MOXyJsonProvider;
 import org.glassfish.grizzly.http.server.HttpServer;
-import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.spi.Container;
+import org.glassfish.jersey.server.spi.ContainerLifecycleListener;
 import org.junit.After;
 import org.junit.Test;
 
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.net.Socket;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * A simple test suite
@@ -524,11 +556,784 @@ public class AddressBookServiceTest {
 		assertEquals(404, response.getStatus());
 	}
 
+	@Test
+	public void queryUsers() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		Person salvador = new Person();
+		salvador.setName("Salvador");
+		salvador.setId(ab.nextId());
+		Person juan = new Person();
+		juan.setName("Juan Perez");
+		juan.setEmail("jperez@example.com");
+		juan.setId(ab.nextId());
+		ab.getPersonList().add(salvador);
+		ab.getPersonList().add(juan);
+		launchServer(ab);
+
+		// Create a new user
+		Person juana = new Person();
+		juana.setName("Juana");
+		Client client = ClientBuilder.newClient();
+		Response response = client.target("http://localhost:8282/contacts")
+				.request(MediaType.APPLICATION_JSON)
+				.post(Entity.entity(juana, MediaType.APPLICATION_JSON));
+		assertEquals(201, response.getStatus());
+
+		// A misspelled name is found
+		response = client.target("http://localhost:8282/contacts/query")
+				.queryParam("q", "salvdor")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		List<Person> persons = response.readEntity(new GenericType<List<Person>>() {});
+		assertEquals(1, persons.size());
+		assertEquals(1, persons.get(0).getId());
+
+		// Exact matches are ranked before prefix matches
+		response = client.target("http://localhost:8282/contacts/query")
+				.queryParam("q", "juan")
+				.request(MediaType.APPLICATION_JSON).get();
+		persons = response.readEntity(new GenericType<List<Person>>() {});
+		assertEquals(2, persons.size());
+		assertEquals(2, persons.get(0).getId());
+		assertEquals(3, persons.get(1).getId());
+
+		// Emails are searched too
+		response = client.target("http://localhost:8282/contacts/query")
+				.queryParam("q", "jperez")
+				.request(MediaType.APPLICATION_JSON).get();
+		persons = response.readEntity(new GenericType<List<Person>>() {});
+		assertEquals(1, persons.size());
+		assertEquals(2, persons.get(0).getId());
+
+		// Deleted users are not found
+		response = client.target("http://localhost:8282/contacts/person/2")
+				.request().delete();
+		assertEquals(204, response.getStatus());
+		response = client.target("http://localhost:8282/contacts/query")
+				.queryParam("q", "juan")
+				.request(MediaType.APPLICATION_JSON).get();
+		persons = response.readEntity(new GenericType<List<Person>>() {});
+		assertEquals(1, persons.size());
+		assertEquals(3, persons.get(0).getId());
+
+		// A query needs some text
+		response = client.target("http://localhost:8282/contacts/query")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(400, response.getStatus());
+	}
+
+	@Test
+	public void queryCommonTokens() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		for (int i = 0; i < 5000; i++) {
+			ab.getPersonList().add(person(ab, "Juan Other" + i, null, null));
+		}
+		for (int i = 0; i < 5000; i++) {
+			ab.getPersonList().add(person(ab, "Someone" + i + " Perez", null, null));
+		}
+		Person juan = person(ab, "Juan Perez", null, null);
+		ab.getPersonList().add(juan);
+		launchServer(ab);
+
+		// The only person with both common tokens is ranked first
+		Client client = ClientBuilder.newClient();
+		Response response = client.target("http://localhost:8282/contacts/query")
+				.queryParam("q", "juan perez")
+				.queryParam("limit", 5)
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		List<Person> persons = response.readEntity(new GenericType<List<Person>>() {});
+		assertEquals(5, persons.size());
+		assertEquals(juan.getId(), persons.get(0).getId());
+
+		// Either way round
+		response = client.target("http://localhost:8282/contacts/query")
+				.queryParam("q", "perez juan")
+				.queryParam("limit", 1)
+				.request(MediaType.APPLICATION_JSON).get();
+		persons = response.readEntity(new GenericType<List<Person>>() {});
+		assertEquals(1, persons.size());
+		assertEquals(juan.getId(), persons.get(0).getId());
+	}
+
+	@Test
+	public void mergeDuplicates() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		ab.getPersonList().add(person(ab, "Juan", "Juan@Example.com ", "+34 976-123-456"));
+		ab.getPersonList().add(person(ab, "Juan", "juan@example.com", "0034976123456"));
+		ab.getPersonList().add(person(ab, "Maria", null, "976 111 222"));
+		ab.getPersonList().add(person(ab, "maria", "maria@example.com", "(976) 111-222"));
+		ab.getPersonList().add(person(ab, "Pedro", null, "976111222"));
+		ApplicationConfig config = launchServer(ab, false);
+		config.getDuplicateScanner().setInterval(0);
+
+		// Find the duplicates, once the background scan has run
+		Client client = ClientBuilder.newClient();
+		List<DuplicateGroup> groups = awaitDuplicates(client, 2);
+		assertEquals(2, groups.size());
+		assertEquals(2, groups.get(0).getPersonList().size());
+		assertEquals(1, groups.get(0).getPersonList().get(0).getId());
+		assertEquals(2, groups.get(0).getPersonList().get(1).getId());
+		assertEquals(2, groups.get(1).getPersonList().size());
+		assertEquals(3, groups.get(1).getPersonList().get(0).getId());
+		assertEquals(4, groups.get(1).getPersonList().get(1).getId());
+
+		// Merge them
+		Response response = client.target("http://localhost:8282/contacts/person/1/merge")
+				.queryParam("with", 2)
+				.request(MediaType.APPLICATION_JSON).post(null);
+		assertEquals(200, response.getStatus());
+		Person juan = response.readEntity(Person.class);
+		assertEquals(1, juan.getId());
+		assertEquals(1, juan.getPhoneList().size());
+		response = client.target("http://localhost:8282/contacts/person/3/merge")
+				.queryParam("with", 4)
+				.request(MediaType.APPLICATION_JSON).post(null);
+		assertEquals(200, response.getStatus());
+		Person maria = response.readEntity(Person.class);
+		assertEquals("maria@example.com", maria.getEmail());
+		assertEquals(1, maria.getPhoneList().size());
+
+		// The duplicates are gone, and the next scan reports it
+		response = client.target("http://localhost:8282/contacts/person/2")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(404, response.getStatus());
+		assertEquals(0, awaitDuplicates(client, 0).size());
+
+		// Only existing entries can be merged
+		response = client.target("http://localhost:8282/contacts/person/1/merge")
+				.queryParam("with", 4)
+				.request(MediaType.APPLICATION_JSON).post(null);
+		assertEquals(400, response.getStatus());
+		response = client.target("http://localhost:8282/contacts/person/2/merge")
+				.queryParam("with", 1)
+				.request(MediaType.APPLICATION_JSON).post(null);
+		assertEquals(404, response.getStatus());
+	}
+
+	@Test
+	public void healthChecks() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		ApplicationConfig config = launchServer(ab, false);
+
+		// A server that has not been announced yet is alive but not ready
+		Client client = ClientBuilder.newClient();
+		Response response = client.target("http://localhost:8282/health/live")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		assertEquals(ServerStatus.State.RECOVERING,
+				response.readEntity(HealthReport.class).getState());
+		response = client.target("http://localhost:8282/health/ready")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(503, response.getStatus());
+
+		// Once announced, an idle server is ready
+		config.getServerStatus().setState(ServerStatus.State.READY);
+		response = client.target("http://localhost:8282/contacts")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		HealthReport report = awaitIdle(client);
+		assertTrue(report.isReady());
+		assertEquals(0, report.getInFlight());
+		assertEquals(0, report.getQueueDepth());
+		assertTrue(report.getMaxWorkers() > 0);
+		assertTrue(report.getP99Millis() > 0);
+	}
+
+	@Test
+	public void recoveringBeforeReload() throws IOException {
+		// Start a server before its address book is recovered
+		AddressBook ab = new AddressBook();
+		ServerStatus status = new ServerStatus();
+		URI uri = UriBuilder.fromUri("http://localhost/").port(8282).build();
+		server = Server.createServer(uri, ApplicationConfig.recovering(ab, status), status, false);
+		server.start();
+
+		// It is alive and reports that it is recovering, but serves no contacts
+		Client client = ClientBuilder.newClient();
+		Response response = client.target("http://localhost:8282/health/ready")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(503, response.getStatus());
+		assertEquals(ServerStatus.State.RECOVERING,
+				response.readEntity(HealthReport.class).getState());
+		response = client.target("http://localhost:8282/contacts")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(503, response.getStatus());
+		assertEquals("1", response.getHeaderString("Retry-After"));
+
+		// Once recovered and announced, the same listener serves the contacts
+		ab.getPersonList().add(person(ab, "Juan", "juan@example.com", "976123456"));
+		ApplicationConfig config = new ApplicationConfig(ab, status);
+		Server.recovered(server, config);
+		assertEquals(ServerStatus.State.RECOVERING, status.getState());
+		Server.announce(uri, config, ab, 0);
+		response = client.target("http://localhost:8282/contacts/query")
+				.queryParam("q", "juan")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		assertEquals(1, response.readEntity(new GenericType<List<Person>>() {}).size());
+		assertTrue(awaitIdle(client).isReady());
+	}
+
+	@Test
+	public void readyAfterServerErrors() throws IOException {
+		// Prepare server
+		ApplicationConfig config = new ApplicationConfig(new AddressBook());
+		config.register(FailingService.class);
+		launchServer(config);
+		config.getServerStatus().setState(ServerStatus.State.READY);
+
+		// Requests that fail with an unmapped exception are still completed
+		Client client = ClientBuilder.newClient();
+		for (int i = 0; i < 3; i++) {
+			Response response = client.target("http://localhost:8282/failing")
+					.request(MediaType.APPLICATION_JSON).get();
+			assertEquals(500, response.getStatus());
+			response.close();
+		}
+		HealthReport report = awaitIdle(client);
+		assertEquals(0, report.getInFlight());
+		assertTrue(report.isReady());
+	}
+
+	@Test
+	public void slowRequestsAreForgotten() throws InterruptedException {
+		ServerStatus status = new ServerStatus(TimeUnit.MILLISECONDS.toNanos(200));
+		status.setState(ServerStatus.State.READY);
+
+		// A slow request makes the server unready
+		status.requestStarted();
+		status.requestCompleted(TimeUnit.SECONDS.toNanos(2));
+		assertFalse(status.report().isReady());
+
+		// Once no request has been completed recently, it is ready again
+		Thread.sleep(400);
+		HealthReport report = status.report();
+		assertEquals(0, report.getP99Millis(), 0);
+		assertTrue(report.isReady());
+	}
+
+	@Test
+	public void projectFields() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		ab.getPersonList().add(person(ab, "Juan", "juan@example.com", "976123456"));
+		launchServer(ab);
+
+		// Only the requested attributes of each person are returned
+		Client client = ClientBuilder.newClient();
+		Response response = client.target("http://localhost:8282/contacts")
+				.queryParam("fields", "id,name")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		Person juan = response.readEntity(AddressBook.class).getPersonList().get(0);
+		assertEquals("Juan", juan.getName());
+		assertEquals(1, juan.getId());
+		assertNull(juan.getEmail());
+		assertEquals(0, juan.getPhoneList().size());
+
+		// Attributes of phone numbers can be requested too
+		response = client.target("http://localhost:8282/contacts/person/1")
+				.queryParam("fields", "name,phoneList.number")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		String json = response.readEntity(String.class);
+		assertTrue(json.contains("976123456"));
+		assertFalse(json.contains("HOME"));
+		assertFalse(json.contains("juan@example.com"));
+
+		// Without fields the whole entry is returned
+		response = client.target("http://localhost:8282/contacts/person/1")
+				.request(MediaType.APPLICATION_JSON).get();
+		json = response.readEntity(String.class);
+		assertTrue(json.contains("HOME"));
+		assertTrue(json.contains("juan@example.com"));
+
+		// The href of a published entry can be requested
+		response = client.target("http://localhost:8282/contacts")
+				.request(MediaType.APPLICATION_JSON)
+				.post(Entity.entity(juan, MediaType.APPLICATION_JSON));
+		URI href = response.getLocation();
+		response = client.target(href)
+				.queryParam("fields", "href")
+				.request(MediaType.APPLICATION_JSON).get();
+		Person published = response.readEntity(Person.class);
+		assertEquals(href, published.getHref());
+		assertNull(published.getName());
+	}
+
+	@Test
+	public void tieredAddressBook() throws IOException {
+		// Prepare server, with only two persons in memory
+		File segment = File.createTempFile("addressbook", ".seg");
+		AddressBook ab = new AddressBook();
+		TieredPersonList persons = new TieredPersonList(segment, 2);
+		ab.setPersonList(persons);
+		for (int i = 0; i < 5; i++) {
+			ab.getPersonList().add(person(ab, "Person " + i, null, "97600000" + i));
+		}
+		try {
+			launchServer(ab);
+
+			// Every person can be read, even from disk
+			Client client = ClientBuilder.newClient();
+			for (int id = 1; id <= 5; id++) {
+				Response response = client.target("http://localhost:8282/contacts/person/" + id)
+						.request(MediaType.APPLICATION_JSON).get();
+				assertEquals(200, response.getStatus());
+				Person person = response.readEntity(Person.class);
+				assertEquals("Person " + (id - 1), person.getName());
+				assertEquals("97600000" + (id - 1), person.getPhoneList().get(0).getNumber());
+			}
+
+			// Updates and deletes reach the disk
+			Person maria = new Person();
+			maria.setName("Maria");
+			Response response = client.target("http://localhost:8282/contacts/person/1")
+					.request(MediaType.APPLICATION_JSON)
+					.put(Entity.entity(maria, MediaType.APPLICATION_JSON));
+			assertEquals(200, response.getStatus());
+			response = client.target("http://localhost:8282/contacts/person/2")
+					.request().delete();
+			assertEquals(204, response.getStatus());
+			for (int id = 3; id <= 5; id++) {
+				client.target("http://localhost:8282/contacts/person/" + id)
+						.request(MediaType.APPLICATION_JSON).get().close();
+			}
+			response = client.target("http://localhost:8282/contacts/person/1")
+					.request(MediaType.APPLICATION_JSON).get();
+			assertEquals("Maria", response.readEntity(Person.class).getName());
+			response = client.target("http://localhost:8282/contacts/person/2")
+					.request(MediaType.APPLICATION_JSON).get();
+			assertEquals(404, response.getStatus());
+			response = client.target("http://localhost:8282/contacts")
+					.request(MediaType.APPLICATION_JSON).get();
+			assertEquals(4, response.readEntity(AddressBook.class).getPersonList().size());
+
+			// The cache is bounded and reports its activity
+			response = client.target("http://localhost:8282/health/cache")
+					.request(MediaType.APPLICATION_JSON).get();
+			assertEquals(200, response.getStatus());
+			CacheStats stats = response.readEntity(CacheStats.class);
+			assertEquals(2, stats.getCapacity());
+			assertTrue(stats.getSize() <= 2);
+			assertTrue(stats.getColdReads() > 0);
+			assertTrue(stats.getEvictions() > 0);
+			assertTrue(stats.getColdReads() <= stats.getMisses());
+
+			// Listings and searches do not count as lookups
+			response = client.target("http://localhost:8282/contacts")
+					.request(MediaType.APPLICATION_JSON).get();
+			assertEquals(4, response.readEntity(AddressBook.class).getPersonList().size());
+			response = client.target("http://localhost:8282/contacts/query")
+					.queryParam("q", "person")
+					.request(MediaType.APPLICATION_JSON).get();
+			assertEquals(3, response.readEntity(new GenericType<List<Person>>() {}).size());
+			CacheStats after = client.target("http://localhost:8282/health/cache")
+					.request(MediaType.APPLICATION_JSON).get(CacheStats.class);
+			assertEquals(stats.getHits(), after.getHits());
+			assertEquals(stats.getMisses(), after.getMisses());
+			assertEquals(stats.getColdReads(), after.getColdReads());
+		} finally {
+			persons.close();
+			segment.delete();
+		}
+	}
+
+	@Test
+	public void tieredStoreOnlyCachesLookups() throws IOException {
+		// Prepare a store with only two persons in memory, compacted eagerly
+		File segment = File.createTempFile("addressbook", ".seg");
+		TieredPersonList persons = new TieredPersonList(segment, 2, 0);
+		AddressBook ab = new AddressBook();
+		HrefTemplate template = HrefTemplate.forBaseUri(URI.create("http://localhost:8282/"));
+		try {
+			for (int i = 0; i < 5; i++) {
+				Person person = person(ab, "Person " + i, null, "97600000" + i);
+				person.setHrefTemplate(template);
+				persons.add(person);
+			}
+
+			// Walking, copying, replacing and removing persons do not use the cache
+			for (int i = 0; i < persons.size(); i++) {
+				assertEquals("Person " + i, persons.get(i).getName());
+			}
+			List<Person> snapshot = persons.snapshot();
+			Person maria = person(ab, "Maria", null, "976000009");
+			maria.setId(1);
+			persons.set(0, maria);
+			persons.remove(persons.indexOfPerson(2));
+			CacheStats stats = persons.stats();
+			assertEquals(0, stats.getHits() + stats.getMisses());
+			assertEquals(0, stats.getColdReads());
+
+			// A copy is not changed by later writes
+			assertEquals(5, snapshot.size());
+			assertEquals("Person 0", snapshot.get(0).getName());
+			assertEquals(2, snapshot.get(1).getId());
+			assertEquals(4, persons.size());
+
+			// Records left behind by updates are compacted
+			for (int i = 0; i < 100; i++) {
+				maria.setName("Maria " + i);
+				persons.set(0, maria);
+			}
+			assertTrue(segment.length() < 10 * PersonSegment.encode(maria).length);
+
+			// Persons read from disk are complete and published under the template
+			assertEquals("Maria 99", persons.findPerson(1).getName());
+			assertNull(persons.findPerson(2));
+			for (int id = 3; id <= 5; id++) {
+				Person person = persons.findPerson(id);
+				assertEquals("Person " + (id - 1), person.getName());
+				assertEquals("97600000" + (id - 1), person.getPhoneList().get(0).getNumber());
+				assertEquals(template.toUri(id), person.getHref());
+			}
+			assertTrue(persons.stats().getColdReads() > 0);
+		} finally {
+			persons.close();
+			segment.delete();
+		}
+	}
+
+	@Test
+	public void listUsersSortedAndFiltered() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		ab.getPersonList().add(person(ab, "Salvador", "salvador@example.com", "600000001"));
+		ab.getPersonList().add(person(ab, "Juan", null, "976000002"));
+		ab.getPersonList().add(person(ab, "maria", "maria@example.com", "600000003"));
+		ab.getPersonList().add(person(ab, "Pedro", "pedro@example.com", "976000004"));
+		for (int i = 0; i < 4; i += 2) {
+			ab.getPersonList().get(i).getPhoneList().get(0).setType(PhoneType.MOBILE);
+		}
+		launchServer(ab);
+
+		// Sorted by name
+		Client client = ClientBuilder.newClient();
+		Response response = client.target("http://localhost:8282/contacts")
+				.queryParam("sort", "name")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(200, response.getStatus());
+		List<Person> persons = response.readEntity(AddressBook.class).getPersonList();
+		assertEquals(4, persons.size());
+		assertEquals("Juan", persons.get(0).getName());
+		assertEquals("maria", persons.get(1).getName());
+		assertEquals("Pedro", persons.get(2).getName());
+		assertEquals("Salvador", persons.get(3).getName());
+
+		// Filtered by phone type and email
+		response = client.target("http://localhost:8282/contacts")
+				.queryParam("phoneType", "MOBILE")
+				.queryParam("hasEmail", "true")
+				.queryParam("sort", "name")
+				.request(MediaType.APPLICATION_JSON).get();
+		persons = response.readEntity(AddressBook.class).getPersonList();
+		assertEquals(2, persons.size());
+		assertEquals(3, persons.get(0).getId());
+		assertEquals(1, persons.get(1).getId());
+		response = client.target("http://localhost:8282/contacts")
+				.queryParam("hasEmail", "false")
+				.request(MediaType.APPLICATION_JSON).get();
+		persons = response.readEntity(AddressBook.class).getPersonList();
+		assertEquals(1, persons.size());
+		assertEquals(2, persons.get(0).getId());
+
+		// Paginated, and the indexes follow the changes
+		response = client.target("http://localhost:8282/contacts/person/1")
+				.request().delete();
+		assertEquals(204, response.getStatus());
+		response = client.target("http://localhost:8282/contacts")
+				.queryParam("offset", 1)
+				.queryParam("limit", 2)
+				.request(MediaType.APPLICATION_JSON).get();
+		persons = response.readEntity(AddressBook.class).getPersonList();
+		assertEquals(2, persons.size());
+		assertEquals(3, persons.get(0).getId());
+		assertEquals(4, persons.get(1).getId());
+
+		// Only known orders and types are accepted
+		response = client.target("http://localhost:8282/contacts")
+				.queryParam("sort", "email")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(400, response.getStatus());
+		response = client.target("http://localhost:8282/contacts")
+				.queryParam("phoneType", "FAX")
+				.request(MediaType.APPLICATION_JSON).get();
+		assertEquals(400, response.getStatus());
+	}
+
+	@Test
+	public void listingIndexSkipsToLargeOffsets() {
+		// Enough persons for the name order to be split in blocks
+		ListingIndex index = new ListingIndex();
+		List<Person> persons = new ArrayList<Person>();
+		Random random = new Random(7);
+		for (int id = 1; id <= 5000; id++) {
+			Person person = new Person();
+			person.setId(id);
+			person.setName("Person " + random.nextInt(1000));
+			if (random.nextBoolean()) {
+				person.setEmail("person" + id + "@example.com");
+			}
+			PhoneNumber phone = new PhoneNumber();
+			phone.setType(PhoneType.values()[random.nextInt(PhoneType.values().length)]);
+			person.addPhone(phone);
+			persons.add(person);
+			index.add(person);
+		}
+		for (int id = 1; id <= 5000; id += 3) {
+			index.remove(id);
+		}
+
+		// Every page is the one of the sorted and filtered persons
+		List<Integer> expected = new ArrayList<Integer>();
+		Collections.sort(persons, new Comparator<Person>() {
+			@Override
+			public int compare(Person a, Person b) {
+				int c = a.getName().compareTo(b.getName());
+				return c != 0 ? c : Integer.compare(a.getId(), b.getId());
+			}
+		});
+		for (Person person : persons) {
+			if (person.getId() % 3 != 1 && person.hasEmail()
+					&& person.getPhoneList().get(0).getType() == PhoneType.WORK) {
+				expected.add(person.getId());
+			}
+		}
+		List<PhoneType> work = Collections.singletonList(PhoneType.WORK);
+		for (int offset : new int[] { 0, 17, 400, expected.size() - 5, expected.size() }) {
+			assertEquals(expected.subList(offset, Math.min(offset + 10, expected.size())),
+					index.list(ListingIndex.Sort.NAME, work, true, offset, 10));
+		}
+		Collections.sort(expected);
+		assertEquals(expected.subList(400, 410),
+				index.list(ListingIndex.Sort.ID, work, true, 400, 10));
+	}
+
+	@Test
+	public void http2Upgrade() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		launchServer(ab, true);
+
+		// HTTP/1.1 clients are still served by the same listener
+		Client client = ClientBuilder.newClient();
+		Response response = client.target("http://localhost:8282/contacts")
+				.request().get();
+		assertEquals(200, response.getStatus());
+
+		// A clear-text client can upgrade the connection to HTTP/2
+		try (Socket socket = new Socket("localhost", 8282)) {
+			socket.setSoTimeout(5000);
+			OutputStream out = socket.getOutputStream();
+			out.write(("GET /contacts HTTP/1.1\r\n"
+					+ "Host: localhost:8282\r\n"
+					+ "Connection: Upgrade, HTTP2-Settings\r\n"
+					+ "Upgrade: h2c\r\n"
+					+ "HTTP2-Settings: AAMAAABkAARAAAAAAAIAAAAA\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			String head = readHead(in);
+			assertTrue(head, head.startsWith("HTTP/1.1 101 Switching Protocols\r\n"));
+
+			// The client preface: a magic string and an empty SETTINGS frame
+			out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.write(new byte[] {0, 0, 0, 0x4, 0, 0, 0, 0, 0});
+			out.flush();
+
+			// The server preface is a SETTINGS frame, and the response to the
+			// upgraded request comes as HEADERS on stream 1
+			byte[] frame = new byte[9];
+			in.readFully(frame);
+			assertEquals(0x4, frame[3]);
+			while (true) {
+				int length = (frame[0] & 0xff) << 16 | (frame[1] & 0xff) << 8 | frame[2] & 0xff;
+				int stream = (frame[5] & 0x7f) << 24 | (frame[6] & 0xff) << 16
+						| (frame[7] & 0xff) << 8 | frame[8] & 0xff;
+				in.readFully(new byte[length]);
+				if (frame[3] == 0x1 && stream == 1) {
+					break;
+				}
+				in.readFully(frame);
+			}
+		}
+	}
+
+	/**
+	 * Reads the status line and headers of an HTTP/1.1 response, and no more.
+	 */
+	private static String readHead(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+			int c = in.read();
+			if (c < 0) {
+				throw new EOFException(head.toString());
+			}
+			head.append((char) c);
+		}
+		return head.toString();
+	}
+
+	@Test
+	public void warmUpBeforeReady() throws IOException {
+		// Prepare server
+		AddressBook ab = new AddressBook();
+		ab.getPersonList().add(person(ab, "Juan", "juan@example.com", "976123456"));
+		final ApplicationConfig config = new ApplicationConfig(ab);
+		final List<ServerStatus.State> states = new CopyOnWriteArrayList<ServerStatus.State>();
+		config.register(new ContainerRequestFilter() {
+			@Override
+			public void filter(ContainerRequestContext request) {
+				states.add(config.getServerStatus().getState());
+			}
+		});
+		launchServer(config);
+
+		// Every warm-up request is served before the server is announced
+		Server.announce(URI.create("http://localhost:8282/"), config, ab, 2);
+		assertEquals(6, states.size());
+		for (ServerStatus.State state : states) {
+			assertEquals(ServerStatus.State.WARMING_UP, state);
+		}
+		assertEquals(ServerStatus.State.READY, config.getServerStatus().getState());
+
+		// and is not counted in the latency of the server
+		assertEquals(0, config.getServerStatus().report().getP99Millis(), 0);
+	}
+
+	@Test
+	public void sharedJaxbContext() throws Exception {
+		// Prepare server
+		ApplicationConfig config = new ApplicationConfig(new AddressBook());
+		final ApplicationHandler[] application = new ApplicationHandler[1];
+		config.register(new ContainerLifecycleListener() {
+			@Override
+			public void onStartup(Container container) {
+				application[0] = container.getApplicationHandler();
+			}
+
+			@Override
+			public void onReload(Container container) {
+			}
+
+			@Override
+			public void onShutdown(Container container) {
+			}
+		});
+		launchServer(config);
+		JaxbContextResolver resolver = null;
+		for (Object instance : config.getInstances()) {
+			if (instance instanceof JaxbContextResolver) {
+				resolver = (JaxbContextResolver) instance;
+			}
+		}
+
+		// The JSON provider marshals every entity with the context created
+		// by the resolver, instead of creating its own
+		Providers providers = application[0].getServiceLocator().getService(Providers.class);
+		MessageBodyWriter<?> writer = providers.getMessageBodyWriter(Person.class,
+				Person.class, new Annotation[0], MediaType.APPLICATION_JSON_TYPE);
+		assertTrue(writer instanceof ProjectingJsonProvider);
+		Method getContext = MOXyJsonProvider.class.getDeclaredMethod("getJAXBContext",
+				Class.class, Annotation[].class, MediaType.class, MultivaluedMap.class);
+		getContext.setAccessible(true);
+		for (Class<?> type : new Class<?>[] { AddressBook.class, Person.class, HealthReport.class }) {
+			assertSame(resolver.getContext(type), getContext.invoke(writer, type,
+					new Annotation[0], MediaType.APPLICATION_JSON_TYPE,
+					new MultivaluedHashMap<String, Object>()));
+		}
+	}
+
+	/**
+	 * Waits until the server has completed every request, as the status is
+	 * updated after the response has been sent.
+	 */
+	private HealthReport awaitIdle(Client client) {
+		HealthReport report = null;
+		for (int attempt = 0; attempt < 50; attempt++) {
+			report = client.target("http://localhost:8282/health/live")
+					.request(MediaType.APPLICATION_JSON).get(HealthReport.class);
+			if (report.getInFlight() == 0) {
+				return report;
+			}
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return report;
+	}
+
+	private List<DuplicateGroup> awaitDuplicates(Client client, int groups) {
+		List<DuplicateGroup> found = null;
+		for (int attempt = 0; attempt < 50; attempt++) {
+			Response response = client.target("http://localhost:8282/contacts/duplicates")
+					.request(MediaType.APPLICATION_JSON).get();
+			if (response.getStatus() == 200) {
+				assertTrue(response.getLastModified() != null);
+				found = response.readEntity(new GenericType<List<DuplicateGroup>>() {});
+				if (found.size() == groups) {
+					return found;
+				}
+			} else {
+				assertEquals(503, response.getStatus());
+				response.close();
+			}
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return found;
+	}
+
+	private Person person(AddressBook ab, String name, String email, String number) {
+		Person person = new Person();
+		person.setName(name);
+		person.setEmail(email);
+		person.setId(ab.nextId());
+		PhoneNumber phone = new PhoneNumber();
+		phone.setNumber(number);
+		person.addPhone(phone);
+		return person;
+	}
+
 	private void launchServer(AddressBook ab) throws IOException {
+		launchServer(ab, false);
+	}
+
+	private ApplicationConfig launchServer(AddressBook ab, boolean http2) throws IOException {
+		return launchServer(new ApplicationConfig(ab), http2);
+	}
+
+	private void launchServer(ApplicationConfig config) throws IOException {
+		launchServer(config, false);
+	}
+
+	private ApplicationConfig launchServer(ApplicationConfig config, boolean http2) throws IOException {
 		URI uri = UriBuilder.fromUri("http://localhost/").port(8282).build();
-		server = GrizzlyHttpServerFactory.createHttpServer(uri,
-				new ApplicationConfig(ab));
+		server = Server.createServer(uri, config, http2);
 		server.start();
+		return config;
+	}
+
+	/**
+	 * A resource that fails with an exception that is not mapped to a response
+	 */
+	@Path("/failing")
+	public static class FailingService {
+		@GET
+		public String fail() {
+			throw new IllegalStateException("Failing on purpose");
+		}
 	}
 
 	@After
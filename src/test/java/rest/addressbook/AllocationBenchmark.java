@@ -0,0 +1,137 @@
+package rest.addressbook;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.URI;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriBuilder;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * A benchmark of the memory allocated by the server to publish persons. It
+ * boots the service locally, seeds it through POST and reports the bytes
+ * allocated by the server threads per POST /contacts, per GET /contacts and
+ * per person listed, and the bytes allocated to write the href of a person.
+ * Allocations are read from the per-thread counters of the JVM, so the
+ * client is not measured.
+ *
+ * Configuration is read from system properties:
+ * <ul>
+ * <li>bench.port: the port of the service (8484)</li>
+ * <li>bench.contacts: the number of seeded contacts (1000)</li>
+ * <li>bench.requests: the number of measured requests of each kind (2000)</li>
+ * </ul>
+ *
+ */
+public class AllocationBenchmark {
+
+	private final int contacts = Integer.getInteger("bench.contacts", 1000);
+	private final int requests = Integer.getInteger("bench.requests", 2000);
+	private final URI uri = UriBuilder.fromUri("http://localhost/")
+			.port(Integer.getInteger("bench.port", 8484)).build();
+	private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	// Keeps the measured href from being optimized away
+	private int sink;
+
+	public static void main(String[] args) {
+		new AllocationBenchmark().run();
+	}
+
+	private void run() {
+		AddressBook ab = new AddressBook();
+		HttpServer server = Server.createServer(uri, new ApplicationConfig(ab), false);
+		Client client = ClientBuilder.newClient();
+		try {
+			server.start();
+			WebTarget contactsTarget = client.target(uri).path("contacts");
+			Person person = new Person();
+			person.setName("Juan");
+			person.setEmail("juan@example.com");
+			for (int i = 0; i < contacts; i++) {
+				post(contactsTarget, person);
+			}
+			// Warm up both paths before measuring
+			for (int i = 0; i < requests; i++) {
+				get(contactsTarget);
+			}
+
+			long before = serverAllocatedBytes();
+			for (int i = 0; i < requests; i++) {
+				get(contactsTarget);
+			}
+			long perGet = (serverAllocatedBytes() - before) / requests;
+			int listed = ab.getPersonList().size();
+
+			before = serverAllocatedBytes();
+			for (int i = 0; i < requests; i++) {
+				post(contactsTarget, person);
+			}
+			long perPost = (serverAllocatedBytes() - before) / requests;
+
+			System.out.printf("POST /contacts: %d B/request%n", perPost);
+			System.out.printf("GET /contacts: %d B/request, %d B/person (%d persons)%n",
+					perGet, perGet / listed, listed);
+			System.out.printf("href of a person: %d B as text, %d B as URI%n",
+					hrefBytes(ab.getPersonList().get(0), true),
+					hrefBytes(ab.getPersonList().get(0), false));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			client.close();
+			server.shutdownNow();
+		}
+	}
+
+	private static void post(WebTarget contactsTarget, Person person) {
+		contactsTarget.request(MediaType.APPLICATION_JSON)
+				.post(Entity.entity(person, MediaType.APPLICATION_JSON)).readEntity(String.class);
+	}
+
+	private static void get(WebTarget contactsTarget) {
+		contactsTarget.request(MediaType.APPLICATION_JSON).get().readEntity(String.class);
+	}
+
+	/**
+	 * The bytes allocated by this thread to write the href of a person, in
+	 * the form used by the marshaller or as a URI.
+	 */
+	private long hrefBytes(Person person, boolean text) {
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			sink += text ? person.getHrefText().length() : person.getHref().hashCode();
+		}
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < n; i++) {
+			sink += text ? person.getHrefText().length() : person.getHref().hashCode();
+		}
+		return (threads.getThreadAllocatedBytes(id) - before) / n;
+	}
+
+	/**
+	 * The bytes allocated so far by the live threads of Grizzly.
+	 */
+	private long serverAllocatedBytes() {
+		long[] ids = threads.getAllThreadIds();
+		ThreadInfo[] infos = threads.getThreadInfo(ids);
+		long[] allocated = threads.getThreadAllocatedBytes(ids);
+		long total = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (infos[i] != null && infos[i].getThreadName().toLowerCase().startsWith("grizzly")
+					&& allocated[i] > 0) {
+				total += allocated[i];
+			}
+		}
+		return total;
+	}
+}
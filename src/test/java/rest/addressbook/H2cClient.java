@@ -0,0 +1,159 @@
+package rest.addressbook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainBuilder;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.filterchain.TransportFilter;
+import org.glassfish.grizzly.http.HttpClientFilter;
+import org.glassfish.grizzly.http.HttpContent;
+import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.http.HttpResponsePacket;
+import org.glassfish.grizzly.http.Protocol;
+import org.glassfish.grizzly.http2.Http2ClientFilter;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+
+/**
+ * A small blocking HTTP/2 client over clear text (h2c with prior knowledge),
+ * built on the HTTP/2 filter of Grizzly. The requests of many threads are
+ * multiplexed as streams over a few connections. Only the status and the
+ * location of each response are kept.
+ *
+ */
+public class H2cClient implements Closeable {
+
+	private static final String PENDING = H2cClient.class.getName() + ".pending";
+
+	/**
+	 * The outcome of a request
+	 */
+	public static class Result {
+		private final int status;
+		private final String location;
+
+		Result(int status, String location) {
+			this.status = status;
+			this.location = location;
+		}
+
+		public int getStatus() {
+			return status;
+		}
+
+		public String getLocation() {
+			return location;
+		}
+	}
+
+	private final URI uri;
+	private final TCPNIOTransport transport;
+	private final Connection<?>[] connections;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * Opens the connections of a client.
+	 * @param uri the base URI of the server
+	 * @param connections the number of connections
+	 * @throws IOException if a connection cannot be opened
+	 */
+	public H2cClient(URI uri, int connections) throws IOException {
+		this.uri = uri;
+		Http2ClientFilter http2 = new Http2ClientFilter();
+		http2.setPriorKnowledge(true);
+		FilterChainBuilder chain = FilterChainBuilder.stateless()
+				.add(new TransportFilter())
+				.add(new HttpClientFilter())
+				.add(http2)
+				.add(new ResponseFilter());
+		transport = TCPNIOTransportBuilder.newInstance().setTcpNoDelay(true).build();
+		transport.setProcessor(chain.build());
+		transport.start();
+		this.connections = new Connection<?>[connections];
+		try {
+			for (int i = 0; i < connections; i++) {
+				this.connections[i] = transport.connect(uri.getHost(), uri.getPort()).get();
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			transport.shutdownNow();
+			throw new IOException("Cannot connect to " + uri, e);
+		}
+	}
+
+	/**
+	 * Sends a request and waits for its response.
+	 * @param method an HTTP method
+	 * @param path a path relative to the base URI
+	 * @param json a JSON body, or null
+	 * @return the outcome.
+	 * @throws IOException if the request fails or times out
+	 */
+	public Result send(String method, String path, String json) throws IOException {
+		HttpRequestPacket.Builder builder = HttpRequestPacket.builder()
+				.method(method)
+				.uri(uri.getPath() + path)
+				.protocol(Protocol.HTTP_2_0)
+				.header("Host", uri.getHost() + ":" + uri.getPort())
+				.header("Accept", "application/json");
+		Buffer body = Buffers.EMPTY_BUFFER;
+		if (json != null) {
+			byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+			builder.contentType("application/json").contentLength(bytes.length);
+			body = Buffers.wrap(transport.getMemoryManager(), bytes);
+		}
+		HttpRequestPacket request = builder.build();
+		CompletableFuture<Result> pending = new CompletableFuture<Result>();
+		request.setAttribute(PENDING, pending);
+		Connection<?> connection = connections[Math.abs(next.getAndIncrement() % connections.length)];
+		connection.write(HttpContent.builder(request).content(body).last(true).build());
+		try {
+			return pending.get(30, TimeUnit.SECONDS);
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			throw new IOException(method + " " + path + " failed", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Connection<?> connection : connections) {
+			connection.closeSilently();
+		}
+		transport.shutdownNow();
+	}
+
+	/**
+	 * Completes the pending request of each response once its body has
+	 * been read.
+	 */
+	private static class ResponseFilter extends BaseFilter {
+
+		@Override
+		public NextAction handleRead(FilterChainContext ctx) throws IOException {
+			HttpContent content = ctx.getMessage();
+			if (content.isLast()) {
+				HttpResponsePacket response = (HttpResponsePacket) content.getHttpHeader();
+				@SuppressWarnings("unchecked")
+				CompletableFuture<Result> pending = (CompletableFuture<Result>) response
+						.getRequest().getAttribute(PENDING);
+				if (pending != null) {
+					pending.complete(new Result(response.getStatus(),
+							response.getHeader("Location")));
+				}
+			}
+			return ctx.getStopAction();
+		}
+	}
+}
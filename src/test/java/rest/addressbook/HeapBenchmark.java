@@ -0,0 +1,90 @@
+package rest.addressbook;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * A benchmark of the heap retained per contact. It fills an address book,
+ * builds the search and listing indexes over it, and reports the heap used
+ * by each after a full collection. The persons are kept in a
+ * {@link TieredPersonList} with a small cache unless told otherwise, so the
+ * report shows what stays in memory however few persons are cached.
+ *
+ * Configuration is read from system properties:
+ * <ul>
+ * <li>bench.contacts: the number of contacts (1000000)</li>
+ * <li>bench.cache: the persons kept in memory, or 0 for all of them (1000)</li>
+ * </ul>
+ *
+ */
+public class HeapBenchmark {
+
+	private final int contacts = Integer.getInteger("bench.contacts", 1000000);
+	private final int cache = Integer.getInteger("bench.cache", 1000);
+
+	// Fields, so the indexes stay reachable while the heap is measured
+	private PersonIndex personIndex;
+	private ListingIndex listingIndex;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		new HeapBenchmark().run();
+	}
+
+	private void run() throws IOException, InterruptedException {
+		File segment = File.createTempFile("addressbook", ".seg");
+		AddressBook ab = new AddressBook();
+		if (cache > 0) {
+			ab.setPersonList(new TieredPersonList(segment, cache));
+		}
+		HrefTemplate template = HrefTemplate.forBaseUri(URI.create("http://localhost:8080/"));
+		try {
+			long empty = usedHeap();
+			for (int i = 0; i < contacts; i++) {
+				Person person = new Person();
+				person.setId(ab.nextId());
+				person.setName("Name" + i % 2000 + " Surname" + i % 20000);
+				person.setEmail("name" + i % 2000 + ".surname" + i + "@example.com");
+				PhoneNumber phone = new PhoneNumber();
+				phone.setNumber("976" + i);
+				phone.setType(PhoneType.MOBILE);
+				person.addPhone(phone);
+				person.setHrefTemplate(template);
+				ab.getPersonList().add(person);
+			}
+			long stored = usedHeap();
+			personIndex = new PersonIndex(ab);
+			long searchable = usedHeap();
+			listingIndex = new ListingIndex(ab);
+			long listable = usedHeap();
+
+			System.out.printf("%d contacts, %s%n", contacts,
+					cache > 0 ? cache + " kept in memory" : "all kept in memory");
+			System.out.printf("%-14s %9s %11s%n", "part", "MB", "B/contact");
+			report("persons", stored - empty);
+			report("search index", searchable - stored);
+			report("listing index", listable - searchable);
+			report("total", listable - empty);
+		} finally {
+			ab.close();
+			segment.delete();
+		}
+	}
+
+	private void report(String part, long bytes) {
+		System.out.printf("%-14s %9.1f %11.0f%n", part, bytes / 1e6, (double) bytes / contacts);
+	}
+
+	/**
+	 * The heap in use after the garbage has been collected, as far as a few
+	 * requests to the collector get.
+	 */
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,435 @@
+package rest.addressbook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+
+/**
+ * A load generator that boots the service locally, seeds the address book and
+ * sends a mix of requests at a constant arrival rate. Latencies are measured
+ * from the time each request was scheduled to be sent, so a slow server is
+ * not hidden by the generator waiting for it (coordinated omission).
+ *
+ * In closed mode every worker sends its next request as soon as the previous
+ * one completes, so the throughput is the most the service sustains with that
+ * many requests in flight. Latencies are then measured from the time each
+ * request is sent.
+ *
+ * Requests only target contacts that exist when they are sent, and answers
+ * for contacts deleted in the meantime are reported as misses, apart from
+ * successes and errors. With HTTP/2 the requests are multiplexed over a few
+ * h2c connections, otherwise the workers share a pool of keep-alive HTTP/1.1
+ * connections with room for one connection per worker.
+ *
+ * Configuration is read from system properties:
+ * <ul>
+ * <li>load.port: the port of the service (8383)</li>
+ * <li>load.contacts: the number of seeded contacts (10000)</li>
+ * <li>load.mode: open, at a constant rate, or closed (open)</li>
+ * <li>load.rate: requests per second in open mode (500)</li>
+ * <li>load.duration: seconds of measurement (30)</li>
+ * <li>load.warmup: seconds of load before measuring (5)</li>
+ * <li>load.workers: concurrent requests, at most in open mode (64)</li>
+ * <li>load.mix: weights of each method (get=70,post=10,put=10,delete=10)</li>
+ * <li>load.http2: send the requests over HTTP/2 (h2c) (false)</li>
+ * <li>load.connections: HTTP/2 connections shared by the workers (4)</li>
+ * </ul>
+ *
+ */
+public class LoadGenerator {
+
+	private enum Operation {
+		GET, POST, PUT, DELETE
+	}
+
+	private final int contacts = Integer.getInteger("load.contacts", 10000);
+	private final boolean closed = "closed".equals(System.getProperty("load.mode", "open"));
+	private final int rate = Integer.getInteger("load.rate", 500);
+	private final int duration = Integer.getInteger("load.duration", 30);
+	private final int warmup = Integer.getInteger("load.warmup", 5);
+	private final int workers = Integer.getInteger("load.workers", 64);
+	private final boolean http2 = Boolean.getBoolean("load.http2");
+	private final int connections = Integer.getInteger("load.connections", 4);
+	private final int[] weights = parseMix(System.getProperty("load.mix",
+			"get=70,post=10,put=10,delete=10"));
+	private final URI uri = UriBuilder.fromUri("http://localhost/")
+			.port(Integer.getInteger("load.port", 8383)).build();
+
+	private final LiveIds liveIds = new LiveIds();
+	private final Map<Operation, Recorder> recorders = new LinkedHashMap<Operation, Recorder>();
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		new LoadGenerator().run();
+	}
+
+	private void run() throws IOException, InterruptedException {
+		AddressBook ab = new AddressBook();
+		for (int i = 0; i < contacts; i++) {
+			Person person = new Person();
+			person.setName("Person " + i);
+			person.setEmail("person" + i + "@example.com");
+			person.setId(ab.nextId());
+			ab.getPersonList().add(person);
+			liveIds.add(person.getId());
+		}
+		HttpServer server = Server.createServer(uri, new ApplicationConfig(ab), http2);
+		server.start();
+		Sender sender = http2 ? new Http2Sender(uri, connections) : new Http1Sender(uri, workers);
+		try {
+			System.out.printf("Warming up for %d s at %s over %s%n", warmup, load(),
+					http2 ? "HTTP/2" : "HTTP/1.1");
+			drive(sender, warmup, false);
+			System.out.printf("Measuring for %d s at %s%n", duration, load());
+			long start = System.nanoTime();
+			drive(sender, duration, true);
+			report(System.nanoTime() - start);
+		} finally {
+			sender.close();
+			server.shutdownNow();
+		}
+	}
+
+	private String load() {
+		return closed ? workers + " workers back to back" : rate + " req/s";
+	}
+
+	private void drive(Sender sender, int seconds, boolean record)
+			throws InterruptedException {
+		if (record) {
+			for (Operation op : Operation.values()) {
+				recorders.put(op, new Recorder());
+			}
+		}
+		if (closed) {
+			driveClosed(sender, seconds, record);
+		} else {
+			driveOpen(sender, seconds, record);
+		}
+	}
+
+	/**
+	 * Schedules requests at fixed intervals, whether or not the previous
+	 * ones have completed, and waits for the last ones to complete so that
+	 * they are not counted in the next phase.
+	 */
+	private void driveOpen(final Sender sender, int seconds, final boolean record)
+			throws InterruptedException {
+		long period = TimeUnit.SECONDS.toNanos(1) / rate;
+		long requests = (long) rate * seconds;
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			long start = System.nanoTime();
+			for (long i = 0; i < requests; i++) {
+				final long intended = start + i * period;
+				long wait = intended - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				final Operation op = pick();
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						Outcome outcome = send(sender, op);
+						if (record) {
+							recorders.get(op).record(System.nanoTime() - intended, outcome);
+						}
+					}
+				});
+			}
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Keeps every worker sending one request after the other until the end
+	 * of the phase, and waits for the last ones to complete.
+	 */
+	private void driveClosed(final Sender sender, int seconds, final boolean record)
+			throws InterruptedException {
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		try {
+			for (int i = 0; i < workers; i++) {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						long sent;
+						while ((sent = System.nanoTime()) < end) {
+							Operation op = pick();
+							Outcome outcome = send(sender, op);
+							if (record) {
+								recorders.get(op).record(System.nanoTime() - sent, outcome);
+							}
+						}
+					}
+				});
+			}
+			pool.shutdown();
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private Outcome send(Sender sender, Operation op) {
+		int id;
+		int status;
+		try {
+			switch (op) {
+			case GET:
+				id = liveIds.pick();
+				status = sender.send("GET", "contacts/person/" + id, null).getStatus();
+				break;
+			case POST:
+				H2cClient.Result result = sender.send("POST", "contacts", json("Load"));
+				status = result.getStatus();
+				if (status == 201) {
+					String location = result.getLocation();
+					liveIds.add(Integer.parseInt(location.substring(location.lastIndexOf('/') + 1)));
+				}
+				break;
+			case PUT:
+				id = liveIds.pick();
+				status = sender.send("PUT", "contacts/person/" + id, json("Load " + id)).getStatus();
+				break;
+			default:
+				id = liveIds.take();
+				status = sender.send("DELETE", "contacts/person/" + id, null).getStatus();
+				break;
+			}
+		} catch (IOException | RuntimeException e) {
+			return Outcome.ERROR;
+		}
+		if (status >= 500) {
+			return Outcome.ERROR;
+		}
+		// A contact may be deleted between the pick and the request
+		return status == 404 || status == 400 ? Outcome.MISS : Outcome.SUCCESS;
+	}
+
+	private static String json(String name) {
+		return "{\"name\":\"" + name + "\"}";
+	}
+
+	private Operation pick() {
+		int total = 0;
+		for (int w : weights) {
+			total += w;
+		}
+		int r = ThreadLocalRandom.current().nextInt(total);
+		for (Operation op : Operation.values()) {
+			r -= weights[op.ordinal()];
+			if (r < 0) {
+				return op;
+			}
+		}
+		return Operation.GET;
+	}
+
+	private void report(long elapsed) {
+		double seconds = elapsed / 1e9;
+		System.out.printf("%-7s %9s %7s %7s %10s %9s %9s %9s %9s %9s%n", "method",
+				"requests", "misses", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms",
+				"p99.9 ms", "max ms");
+		long requests = 0;
+		for (Map.Entry<Operation, Recorder> entry : recorders.entrySet()) {
+			Recorder recorder = entry.getValue();
+			long[] latencies = recorder.sorted();
+			requests += latencies.length;
+			if (latencies.length == 0) {
+				continue;
+			}
+			System.out.printf("%-7s %9d %7d %7d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+					entry.getKey(), latencies.length, recorder.misses(), recorder.errors(),
+					latencies.length / seconds, percentile(latencies, 50),
+					percentile(latencies, 90), percentile(latencies, 99),
+					percentile(latencies, 99.9), latencies[latencies.length - 1] / 1e6);
+		}
+		System.out.printf("Total %d requests in %.1f s: %.1f req/s (%s)%n",
+				requests, seconds, requests / seconds, closed ? load() : "target " + rate);
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	private static int[] parseMix(String mix) {
+		int[] weights = new int[Operation.values().length];
+		for (String part : mix.split(",")) {
+			String[] pair = part.split("=");
+			weights[Operation.valueOf(pair[0].trim().toUpperCase()).ordinal()] = Integer
+					.parseInt(pair[1].trim());
+		}
+		return weights;
+	}
+
+	/**
+	 * How a request ended
+	 */
+	private enum Outcome {
+		SUCCESS, MISS, ERROR
+	}
+
+	/**
+	 * Latencies of one kind of request, in nanoseconds.
+	 */
+	private static class Recorder {
+		private long[] latencies = new long[1024];
+		private int count;
+		private long misses;
+		private long errors;
+
+		synchronized void record(long latency, Outcome outcome) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = latency;
+			if (outcome == Outcome.MISS) {
+				misses++;
+			} else if (outcome == Outcome.ERROR) {
+				errors++;
+			}
+		}
+
+		synchronized long misses() {
+			return misses;
+		}
+
+		synchronized long errors() {
+			return errors;
+		}
+
+		synchronized long[] sorted() {
+			long[] copy = Arrays.copyOf(latencies, count);
+			Arrays.sort(copy);
+			return copy;
+		}
+	}
+
+	/**
+	 * The identifiers of the contacts that exist, as far as the generator
+	 * knows. A deleted identifier is taken out before the request is sent,
+	 * so two deletes never target the same contact.
+	 */
+	private static class LiveIds {
+		private int[] ids = new int[1024];
+		private int size;
+
+		synchronized void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			ids[size++] = id;
+		}
+
+		/**
+		 * A random live identifier, or 0 if there is none.
+		 */
+		synchronized int pick() {
+			return size == 0 ? 0 : ids[ThreadLocalRandom.current().nextInt(size)];
+		}
+
+		/**
+		 * Removes a random live identifier.
+		 * @return the identifier, or 0 if there is none.
+		 */
+		synchronized int take() {
+			if (size == 0) {
+				return 0;
+			}
+			int i = ThreadLocalRandom.current().nextInt(size);
+			int id = ids[i];
+			ids[i] = ids[--size];
+			return id;
+		}
+	}
+
+	/**
+	 * Sends a request to the service and waits for its outcome.
+	 */
+	private interface Sender extends Closeable {
+		H2cClient.Result send(String method, String path, String json) throws IOException;
+	}
+
+	/**
+	 * Sends HTTP/1.1 requests through the default JAX-RS client, which uses
+	 * {@link java.net.HttpURLConnection}. Its keep-alive cache only keeps
+	 * http.maxConnections idle connections per host (5 by default), so the
+	 * other workers would open a new connection for every request.
+	 */
+	private static class Http1Sender implements Sender {
+		private final Client client;
+		private final WebTarget target;
+
+		Http1Sender(URI uri, int workers) {
+			// Read once, when the first connection is kept alive
+			int maxConnections = Integer.getInteger("http.maxConnections", 5);
+			System.setProperty("http.maxConnections",
+					Integer.toString(Math.max(maxConnections, workers)));
+			client = ClientBuilder.newClient();
+			target = client.target(uri);
+		}
+
+		@Override
+		public H2cClient.Result send(String method, String path, String json) {
+			Invocation.Builder request = target.path(path).request(MediaType.APPLICATION_JSON);
+			Response response = json == null ? request.method(method)
+					: request.method(method, Entity.entity(json, MediaType.APPLICATION_JSON));
+			try {
+				return new H2cClient.Result(response.getStatus(),
+						response.getHeaderString(HttpHeaders.LOCATION));
+			} finally {
+				response.close();
+			}
+		}
+
+		@Override
+		public void close() {
+			client.close();
+		}
+	}
+
+	/**
+	 * Sends HTTP/2 requests over a few shared h2c connections.
+	 */
+	private static class Http2Sender implements Sender {
+		private final H2cClient client;
+
+		Http2Sender(URI uri, int connections) throws IOException {
+			client = new H2cClient(uri, connections);
+		}
+
+		@Override
+		public H2cClient.Result send(String method, String path, String json) throws IOException {
+			return client.send(method, path, json);
+		}
+
+		@Override
+		public void close() throws IOException {
+			client.close();
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package rest.addressbook;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A benchmark of the search index with many synthetic contacts. Names are
+ * drawn from a generated vocabulary with a Zipf distribution, so a few first
+ * and last names are shared by many persons, as in real address books. The
+ * data and the queries only depend on the seed, so runs can be compared.
+ *
+ * The recall of each query is the share of the best results, found by
+ * scoring every contact, that its results match in score. Contacts with the
+ * same score are interchangeable.
+ *
+ * Configuration is read from system properties:
+ * <ul>
+ * <li>bench.contacts: the number of indexed contacts (1000000)</li>
+ * <li>bench.rounds: the number of measured runs of each query (50)</li>
+ * <li>bench.seed: the seed of the generated data (42)</li>
+ * </ul>
+ *
+ */
+public class SearchBenchmark {
+
+	private static final String[] SYLLABLES = { "ma", "ri", "a", "jo", "se", "lu",
+			"is", "an", "to", "ni", "o", "ca", "mi", "la", "el", "ra", "na", "do",
+			"ro", "sa", "pe", "dro", "jua", "gar", "ci", "fer", "nan", "dez", "lo",
+			"pez", "mar", "tin", "gon", "za", "les", "ro", "dri", "guez", "be", "ta" };
+
+	private final int contacts = Integer.getInteger("bench.contacts", 1000000);
+	private final int rounds = Integer.getInteger("bench.rounds", 50);
+	private final Random random = new Random(Long.getLong("bench.seed", 42));
+
+	public static void main(String[] args) {
+		new SearchBenchmark().run();
+	}
+
+	private void run() {
+		String[] firstNames = vocabulary(2000, 2, 3);
+		String[] lastNames = vocabulary(20000, 2, 4);
+		double[] firstWeights = zipf(firstNames.length);
+		double[] lastWeights = zipf(lastNames.length);
+
+		PersonIndex index = new PersonIndex();
+		long start = System.nanoTime();
+		for (int id = 1; id <= contacts; id++) {
+			String first = firstNames[pick(firstWeights)];
+			String last = lastNames[pick(lastWeights)];
+			Person person = new Person();
+			person.setId(id);
+			person.setName(capitalize(first) + " " + capitalize(last));
+			if (random.nextInt(10) < 7) {
+				person.setEmail(first + "." + last
+						+ (random.nextBoolean() ? Integer.toString(random.nextInt(1000)) : "")
+						+ "@example.com");
+			}
+			index.add(person);
+		}
+		System.out.printf("Indexed %d contacts in %d ms%n", contacts,
+				(System.nanoTime() - start) / 1000000);
+
+		Map<String, String> queries = new LinkedHashMap<String, String>();
+		queries.put("common first name", firstNames[0]);
+		queries.put("misspelled first name", typo(firstNames[0]));
+		queries.put("common last name", lastNames[0]);
+		queries.put("misspelled last name", typo(lastNames[1]));
+		queries.put("prefix", lastNames[2].substring(0, 3));
+		queries.put("rare name", lastNames[lastNames.length - 1]);
+		queries.put("first and last name", firstNames[1] + " " + lastNames[0]);
+		queries.put("two misspellings", typo(firstNames[2]) + " " + typo(lastNames[3]));
+		queries.put("three tokens", firstNames[0] + " " + lastNames[1] + " " + lastNames[4]);
+
+		for (int round = 0; round < rounds; round++) {
+			for (String query : queries.values()) {
+				index.search(query, 10);
+			}
+		}
+		System.out.printf("%-22s %-28s %6s %7s %9s %9s %9s%n", "query", "text", "hits",
+				"recall", "p50 ms", "p90 ms", "max ms");
+		for (Map.Entry<String, String> query : queries.entrySet()) {
+			long[] latencies = new long[rounds];
+			List<Integer> hits = null;
+			for (int round = 0; round < rounds; round++) {
+				long before = System.nanoTime();
+				hits = index.search(query.getValue(), 10);
+				latencies[round] = System.nanoTime() - before;
+			}
+			List<Integer> best = index.scan(query.getValue(), 10);
+			int found = 0;
+			for (int i = 0; i < best.size() && i < hits.size(); i++) {
+				if (index.score(hits.get(i), query.getValue())
+						>= index.score(best.get(i), query.getValue())) {
+					found++;
+				}
+			}
+			double recall = best.isEmpty() ? 1 : (double) found / best.size();
+			Arrays.sort(latencies);
+			System.out.printf("%-22s %-28s %6d %7.2f %9.2f %9.2f %9.2f%n", query.getKey(),
+					query.getValue(), hits.size(), recall, latencies[rounds / 2] / 1e6,
+					latencies[(int) Math.ceil(0.9 * rounds) - 1] / 1e6,
+					latencies[rounds - 1] / 1e6);
+		}
+	}
+
+	/**
+	 * Distinct words of a few syllables.
+	 */
+	private String[] vocabulary(int size, int minSyllables, int maxSyllables) {
+		Map<String, Boolean> words = new LinkedHashMap<String, Boolean>();
+		while (words.size() < size) {
+			StringBuilder word = new StringBuilder();
+			int syllables = minSyllables + random.nextInt(maxSyllables - minSyllables + 1);
+			for (int i = 0; i < syllables; i++) {
+				word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+			}
+			words.put(word.toString(), Boolean.TRUE);
+		}
+		return words.keySet().toArray(new String[size]);
+	}
+
+	/**
+	 * The cumulative weights of a Zipf distribution of exponent 1.
+	 */
+	private static double[] zipf(int size) {
+		double[] cumulative = new double[size];
+		double total = 0;
+		for (int i = 0; i < size; i++) {
+			total += 1.0 / (i + 1);
+			cumulative[i] = total;
+		}
+		for (int i = 0; i < size; i++) {
+			cumulative[i] /= total;
+		}
+		return cumulative;
+	}
+
+	private int pick(double[] cumulative) {
+		int i = Arrays.binarySearch(cumulative, random.nextDouble());
+		return Math.min(cumulative.length - 1, i < 0 ? -i - 1 : i);
+	}
+
+	/**
+	 * A word with one letter replaced, away from its first letter.
+	 */
+	private String typo(String word) {
+		char[] letters = word.toCharArray();
+		int i = 1 + random.nextInt(letters.length - 1);
+		letters[i] = letters[i] == 'e' ? 'a' : 'e';
+		return new String(letters);
+	}
+
+	private static String capitalize(String word) {
+		return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+	}
+}